@@ -0,0 +1,153 @@
+/* Describes the topology Percolation runs on: an n-by-n square grid or an n-by-n-by-n cube, and which sites count as neighbours. Sites are stored at flat
+ * indices into a grid padded with one layer of sites on every side that are never opened, so every neighbour of a real site is simply index + offset for
+ * one of a fixed set of offsets, with no bounds checks and no branching on the position of the site. The first axis runs from the top to the bottom: a site
+ * is in the top layer if its index is below topEnd() and in the bottom layer if it is at least bottomStart().
+ *
+ * Real sites also have an ordinal in [0, sites()), numbering them in row-major order without the padding, which is what Percolation's public API and its
+ * listeners use. For bond percolation every pair of neighbours is a bond, numbered index * directions() + d for the d-th forward offset of its upper site */
+
+public final class Lattice {
+    private final int n;
+    private final int dims;
+    private final int width;           // n + 2, the padded length of every axis
+    private final int[] strides;       // strides[0] is the stride of the top-to-bottom axis, the last one is 1
+    private final int[][] vectors;     // forward neighbour directions as unit steps per axis
+    private final int[] forward;       // index offsets of the forward directions
+    private final int[] offsets;       // index offsets of all neighbours, the forward ones followed by their opposites
+    private final int size;            // number of padded sites
+    private final int sites;           // number of real sites
+    private final String name;
+
+    private Lattice(String name, int n, int dims, int[][] vectors) {
+    // Checks that the padded grid fits into int indices and precomputes the offsets of every neighbour direction
+        if (n <= 0) throw new IllegalArgumentException();
+        long padded = 1;
+        for (int d = 0; d < dims; d++) padded *= n + 2;
+        if (padded > Integer.MAX_VALUE - 64) throw new IllegalArgumentException("lattice too large: " + name + " " + n);
+
+        this.name = name;
+        this.n = n;
+        this.dims = dims;
+        this.width = n + 2;
+        this.size = (int) padded;
+        int sites = 1;
+        for (int d = 0; d < dims; d++) sites *= n;
+        this.sites = sites;
+        this.vectors = vectors;
+
+        strides = new int[dims];
+        strides[dims - 1] = 1;
+        for (int d = dims - 2; d >= 0; d--) strides[d] = strides[d + 1] * width;
+
+        forward = new int[vectors.length];
+        offsets = new int[2 * vectors.length];
+        for (int k = 0; k < vectors.length; k++) {
+            for (int d = 0; d < dims; d++) forward[k] += vectors[k][d] * strides[d];
+            offsets[k] = forward[k];
+            offsets[k + vectors.length] = -forward[k];
+        }
+    }
+
+    public static Lattice square(int n)
+    // n-by-n grid where every site has 4 neighbours, the original Percolation model
+    {   return new Lattice("square", n, 2, new int[][]{{0, 1}, {1, 0}});   }
+
+    public static Lattice moore(int n)
+    // n-by-n grid where every site has 8 neighbours, the diagonal ones included
+    {   return new Lattice("moore", n, 2, new int[][]{{0, 1}, {1, -1}, {1, 0}, {1, 1}});   }
+
+    public static Lattice cubic(int n)
+    // n-by-n-by-n cube where every site has 6 neighbours
+    {   return new Lattice("cubic", n, 3, new int[][]{{0, 0, 1}, {0, 1, 0}, {1, 0, 0}});   }
+
+    public int n()
+    // Length of every axis
+    {   return n;   }
+
+    public int dimensions()
+    // 2 for the square grids, 3 for the cube
+    {   return dims;   }
+
+    public int sites()
+    // Number of real sites, n^dimensions
+    {   return sites;   }
+
+    int size()
+    // Number of padded sites, which is the length of Percolation's arrays
+    {   return size;   }
+
+    int[] offsets()
+    // Index offsets of all neighbours
+    {   return offsets.clone();   }
+
+    int directions()
+    // Number of forward directions, so the number of bonds per site
+    {   return forward.length;   }
+
+    int forward(int direction)
+    // Index offset of a forward direction
+    {   return forward[direction];   }
+
+    int topEnd()
+    // Indices below this are in the padding or in the top layer
+    {   return 2 * strides[0];   }
+
+    int bottomStart()
+    // Indices from here on are in the bottom layer or in the padding
+    {   return n * strides[0];   }
+
+    int index(int ordinal) {
+    // Padded index of the real site with the given ordinal
+        int index = 0;
+        for (int d = dims - 1; d >= 0; d--) {
+            index += (ordinal % n + 1) * strides[d];
+            ordinal /= n;
+        }
+        return index;
+    }
+
+    int ordinal(int index) {
+    // Ordinal of the real site at the given padded index
+        int ordinal = 0;
+        for (int d = 0; d < dims; d++) ordinal = ordinal * n + index / strides[d] % width - 1;
+        return ordinal;
+    }
+
+    boolean isSite(int index) {
+    // Is index a real site rather than padding?
+        for (int d = 0; d < dims; d++) {
+            int coordinate = index / strides[d] % width;
+            if (coordinate == 0 || coordinate == width - 1) return false;
+        }
+        return true;
+    }
+
+    public int bonds() {
+    // Number of bonds between real sites: a direction with a step of 1 along an axis has n - 1 positions on that axis, otherwise n
+        int bonds = 0;
+        for (int[] vector : vectors) {
+            int count = 1;
+            for (int step : vector) count *= n - Math.abs(step);
+            bonds += count;
+        }
+        return bonds;
+    }
+
+    void fillSites(int[] dst) {
+    // Writes the padded indices of all real sites into dst, in ordinal order
+        for (int k = 0; k < dst.length; k++) dst[k] = index(k);
+    }
+
+    void fillBonds(int[] dst) {
+    // Writes the ids of all bonds into dst, ordered by upper site and then direction
+        int count = 0;
+        for (int k = 0, sites = sites(); k < sites; k++) {
+            int index = index(k);
+            for (int d = 0; d < forward.length; d++)
+                if (isSite(index + forward[d])) dst[count++] = index * forward.length + d;
+        }
+    }
+
+    public String toString()
+    {   return name + " " + n;   }
+}
@@ -0,0 +1,321 @@
+/* Same model as Percolation, but for grids too big for the heap (n = 100,000 is 10^10 sites). The open-site bitset and the union-find live in memory-mapped
+ * files in a directory, split into 1 GB segments because a single MappedByteBuffer cannot go past 2 GB. The union-find packs everything into one long per
+ * site: a positive value v points at parent v - 1, and a value v <= 0 marks a root whose component has (-v >>> 2) + 1 sites and the TOP and BOTTOM flags
+ * in the low two bits of -v. A zero-filled file is therefore a freshly closed grid, so a new grid costs nothing to initialize and the files stay sparse.
+ *
+ * checkpoint() flushes everything to disk and marks the grid clean. A grid that was modified after its last checkpoint is marked dirty on disk, and
+ * resuming a dirty grid (after a crash) rebuilds the union-find from the open bitset. Bits are only ever set, so the bitset is always a consistent record
+ * of which sites were opened. Listeners and cluster statistics are not supported here, only the open/isOpen/isFull/percolates API */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+public class MappedPercolation implements Closeable {
+
+	private static final int SEGMENT_BITS = 30;   // 1 GB segments, a multiple of 8 so no long straddles two segments
+	private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+	private static final long MAGIC = 0x5045524331L;   // "PERC1"
+	private static final int MAX_N = (1 << 29) - 1;    // keeps the parent file below 2^61 bytes, so its size and segment count cannot overflow
+	private static final int TOP = 0x01;
+	private static final int BOTTOM = 0x02;
+
+	// Header layout: magic, n, open sites, then one byte each for percolates and clean
+	private static final int H_MAGIC = 0, H_N = 8, H_OPEN = 16, H_PERCOLATES = 24, H_CLEAN = 25, HEADER_SIZE = 32;
+
+	private final int n;
+	private final long sites;
+	private final FileChannel[] channels;
+	private final MappedByteBuffer header;
+	private final MappedByteBuffer[] open;     // bitset of open sites, 64 sites per long
+	private final MappedByteBuffer[] parent;   // one long per site, encoded as described above
+	private long openSites;
+	private boolean percolates;
+	private boolean dirty;                     // whether the header on disk already says dirty
+
+	public MappedPercolation(int n, Path dir) throws IOException
+	// Creates a new n-by-n grid in dir, replacing any grid that was there. n can be at most 2^29 - 1
+	{	this(dir, n, true);	}
+
+	public MappedPercolation(Path dir) throws IOException
+	// Resumes the grid stored in dir. If it was not checkpointed after its last change, the union-find is rebuilt from the open bitset
+	{	this(dir, 0, false);	}
+
+	private MappedPercolation(Path dir, int n, boolean create) throws IOException {
+	/* Opens or creates the files. If anything fails on the way, from a missing file to a corrupt header, the channels that were already
+	 * opened are closed before the exception is passed on, so a failed resume does not leave the files open (and locked, on Windows) */
+		if (create && (n <= 0 || n > MAX_N)) throw new IllegalArgumentException("n must be between 1 and " + MAX_N + ": " + n);
+		if (create) {
+			Files.createDirectories(dir);
+			for (String name : new String[]{"header", "open", "parent"}) Files.deleteIfExists(dir.resolve(name));
+		}
+
+		channels = new FileChannel[3];
+		try {
+			channels[0] = channel(dir.resolve("header"), create);
+			header = channels[0].map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+			if (create) {
+				header.putLong(H_MAGIC, MAGIC);
+				header.putLong(H_N, n);
+			}
+			else if (header.getLong(H_MAGIC) != MAGIC) throw new IOException("no percolation grid in " + dir);
+
+			long size = header.getLong(H_N);
+			if (size <= 0 || size > MAX_N) throw new IOException("corrupt header in " + dir + ": n = " + size);
+			this.n = (int) size;
+			sites = size * size;
+			channels[1] = channel(dir.resolve("open"), create);
+			channels[2] = channel(dir.resolve("parent"), create);
+			open = map(channels[1], ((sites + 63) >>> 6) * 8);
+			parent = map(channels[2], sites * 8);
+
+			openSites = header.getLong(H_OPEN);
+			percolates = header.get(H_PERCOLATES) != 0;
+			if (create) checkpoint();
+			else if (header.get(H_CLEAN) == 0) recover();
+		}
+		catch (Throwable e) {
+			for (FileChannel channel : channels) {
+				if (channel == null) continue;
+				try {	channel.close();	}
+				catch (IOException suppressed) {	e.addSuppressed(suppressed);	}
+			}
+			throw e;
+		}
+	}
+
+	private static FileChannel channel(Path file, boolean create) throws IOException {
+		if (create) return FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		return FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	private static MappedByteBuffer[] map(FileChannel channel, long bytes) throws IOException {
+	// Maps bytes of channel as consecutive segments. Mapping past the end of the file grows it, sparsely on most file systems
+		int count = (int) ((bytes + SEGMENT_MASK) >>> SEGMENT_BITS);
+		MappedByteBuffer[] segments = new MappedByteBuffer[count];
+		for (int i = 0; i < count; i++) {
+			long start = (long) i << SEGMENT_BITS;
+			segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(bytes - start, 1L << SEGMENT_BITS));
+		}
+		return segments;
+	}
+
+	private static long get(MappedByteBuffer[] segments, long offset)
+	{	return segments[(int) (offset >>> SEGMENT_BITS)].getLong((int) (offset & SEGMENT_MASK));	}
+
+	private static void set(MappedByteBuffer[] segments, long offset, long value)
+	{	segments[(int) (offset >>> SEGMENT_BITS)].putLong((int) (offset & SEGMENT_MASK), value);	}
+
+	public void checkpoint() {
+	/* Flushes both files and then marks the header clean, so a grid resumed from here is used as it is. Between checkpoints the files are
+	 * still written through by the OS whenever it likes, which is why a dirty grid is rebuilt from its bitset on resume */
+		for (MappedByteBuffer segment : open) segment.force();
+		for (MappedByteBuffer segment : parent) segment.force();
+		header.putLong(H_OPEN, openSites);
+		header.put(H_PERCOLATES, (byte) (percolates ? 1 : 0));
+		header.put(H_CLEAN, (byte) 1);
+		header.force();
+		dirty = false;
+	}
+
+	public void close() throws IOException {
+	// Checkpoints and closes the files. The grid must not be used afterwards
+		checkpoint();
+		for (FileChannel channel : channels) channel.close();
+	}
+
+	private void recover() {
+	/* Rebuilds the union-find after a crash. The open sites are cleared back to fresh roots, then every open site is re-opened from the bitset.
+	 * A closed site can still hold an entry from an open whose bit never reached the disk, but nothing reads it: connect() overwrites it before
+	 * the site joins anything. The bitset itself is only ever OR-ed into, so it needs no repair */
+		long words = (sites + 63) >>> 6;
+		for (long w = 0; w < words; w++)
+			for (long bits = get(open, w << 3); bits != 0; bits &= bits - 1)
+				set(parent, ((w << 6) + Long.numberOfTrailingZeros(bits)) << 3, 0);
+
+		openSites = 0;
+		percolates = false;
+		for (long w = 0; w < words; w++)
+			for (long bits = get(open, w << 3); bits != 0; bits &= bits - 1) {
+				long site = (w << 6) + Long.numberOfTrailingZeros(bits);
+				connect(site, (int) (site / n) + 1, (int) (site % n) + 1);
+			}
+		checkpoint();
+	}
+
+	public void open(int row, int col) {
+	// To open a site and connect it with any adjacent open sites. Row and col inputs begin at 1, as in Percolation
+		if (!validate(row, col)) throw new IndexOutOfBoundsException();
+		long site = xyto1D(row, col);
+		if (isOpen(site)) return;
+
+		if (!dirty) {   // the header has to say dirty before the first change after a checkpoint reaches the disk
+			header.put(H_CLEAN, (byte) 0);
+			header.force();
+			dirty = true;
+		}
+		long offset = (site >>> 6) << 3;
+		set(open, offset, get(open, offset) | (1L << site));
+		connect(site, row, col);
+	}
+
+	private void connect(long site, int row, int col) {
+	/* Counts an already marked open site and unions it with its open neighbours. The site is always written as a fresh root first, since after a
+	 * crash its entry may be left over from an earlier open that was lost */
+		openSites++;
+		int flags = (row == 1 ? TOP : 0) | (row == n ? BOTTOM : 0);
+		set(parent, site << 3, -flags);
+
+		if (row > 1 && isOpen(site - n)) union(site, site - n);
+		if (row < n && isOpen(site + n)) union(site, site + n);
+		if (col > 1 && isOpen(site - 1)) union(site, site - 1);
+		if (col < n && isOpen(site + 1)) union(site, site + 1);
+
+		if ((-get(parent, find(site) << 3) & (TOP | BOTTOM)) == (TOP | BOTTOM)) percolates = true;
+	}
+
+	private long xyto1D(int row, int col)
+	// 0-based row-major index of the site at 1-based (row, col)
+	{	return (long) (row - 1) * n + (col - 1);	}
+
+	private boolean validate(int row, int col)
+	{	return (row <= n && col <= n && row >= 1 && col >= 1);	}
+
+	private boolean isOpen(long site)
+	{	return (get(open, (site >>> 6) << 3) & (1L << site)) != 0;	}
+
+	private long find(long p) {
+	// Returns the root of p, halving the path on the way up. Stored values are parent + 1, so a grandparent can be copied as it is
+		while (true) {
+			long v = get(parent, p << 3);
+			if (v <= 0) return p;
+			long q = v - 1;
+			long w = get(parent, q << 3);
+			if (w <= 0) return q;
+			set(parent, p << 3, w);
+			p = w - 1;
+		}
+	}
+
+	private void union(long p, long q) {
+	// Links the root of the smaller component under the root of the larger one, merging sizes and flags into the surviving root
+		long rootP = find(p);
+		long rootQ = find(q);
+		if (rootP == rootQ) return;
+
+		long valueP = -get(parent, rootP << 3);
+		long valueQ = -get(parent, rootQ << 3);
+		long size = (valueP >>> 2) + (valueQ >>> 2) + 2;
+		long flags = (valueP | valueQ) & (TOP | BOTTOM);
+		long root = (valueP >>> 2) < (valueQ >>> 2) ? rootQ : rootP;
+		set(parent, (root == rootP ? rootQ : rootP) << 3, root + 1);
+		set(parent, root << 3, -(((size - 1) << 2) | flags));
+	}
+
+	public boolean isOpen(int row, int col) {
+	// Check if a given site is open
+		if (!validate(row, col)) throw new IndexOutOfBoundsException();
+		return isOpen(xyto1D(row, col));
+	}
+
+	public boolean isFull(int row, int col) {
+	// Check if a given site is full, that is open and in the same component as an open site of the top row
+		if (!validate(row, col)) throw new IndexOutOfBoundsException();
+		long site = xyto1D(row, col);
+		return isOpen(site) && (-get(parent, find(site) << 3) & TOP) != 0;
+	}
+
+	public long numberOfOpenSites()
+	// Total number of open sites
+	{	return openSites;	}
+
+	public boolean percolates()
+	// does the grid percolate?
+	{	return percolates;	}
+
+	public static void main(String[] args) throws IOException {
+	/* Checks MappedPercolation against Percolation on small random grids, including a simulated crash halfway through every grid. The two files
+	 * can reach the disk in either order, so the crash keeps every write since the last checkpoint to one file and loses those to the other: on
+	 * even grids the open bits are lost (and Percolation is rebuilt up to the checkpoint), on odd grids the union-find writes. Then resuming a
+	 * grid with a corrupt n in its header, or with a file missing, has to fail with an IOException */
+		Random random = new Random(42);
+		Path dir = Files.createTempDirectory("percolation");
+		Path snapshot = Files.createTempDirectory("checkpoint"), crashed = Files.createTempDirectory("crashed");
+		for (int trial = 0; trial < 200; trial++) {
+			int n = 1 + random.nextInt(20);
+			int[] rows = new int[n * n], cols = new int[n * n];
+			Percolation heap = new Percolation(n);
+			MappedPercolation mapped = new MappedPercolation(n, dir);
+			for (int k = 0; k < n * n; k++) {
+				int row = 1 + random.nextInt(n), col = 1 + random.nextInt(n);
+				rows[k] = row;
+				cols[k] = col;
+				heap.open(row, col);
+				mapped.open(row, col);
+				if (k == n * n / 3) {
+					mapped.checkpoint();
+					copy(dir, snapshot, null, null);
+				}
+				if (k == n * n / 2) {   // the old instance is dropped without close(), as in a crash
+					boolean bitsLost = trial % 2 == 0;
+					copy(dir, crashed, snapshot, bitsLost ? "open" : "parent");
+					mapped = new MappedPercolation(crashed);
+					if (bitsLost) {
+						heap = new Percolation(n);
+						for (int i = 0; i <= n * n / 3; i++) heap.open(rows[i], cols[i]);
+					}
+				}
+
+				if (heap.percolates() != mapped.percolates() || heap.numberOfOpenSites() != mapped.numberOfOpenSites())
+					throw new AssertionError("n = " + n + ": percolates or open site count differs");
+				for (int i = 1; i <= n; i++)
+					for (int j = 1; j <= n; j++)
+						if (heap.isOpen(i, j) != mapped.isOpen(i, j) || heap.isFull(i, j) != mapped.isFull(i, j))
+							throw new AssertionError("n = " + n + ": site (" + i + ", " + j + ") differs");
+			}
+			mapped.close();
+		}
+		System.out.println("200 grids match Percolation");
+
+		for (long n : new long[]{0, -5, Integer.MAX_VALUE, Long.MAX_VALUE}) {
+			copy(dir, crashed, null, null);
+			try (FileChannel channel = FileChannel.open(crashed.resolve("header"), StandardOpenOption.WRITE)) {
+				channel.write(ByteBuffer.allocate(8).putLong(0, n), H_N);
+			}
+			expectFailure(crashed, "n = " + n);
+		}
+		copy(dir, crashed, null, null);
+		Files.delete(crashed.resolve("open"));
+		expectFailure(crashed, "a missing file");
+		System.out.println("corrupt grids are rejected");
+	}
+
+	private static void expectFailure(Path dir, String corruption) {
+	// Checks that resuming the grid in dir fails with an IOException
+		try {
+			new MappedPercolation(dir).close();
+		}
+		catch (IOException e) {
+			return;
+		}
+		throw new AssertionError("resumed a grid with " + corruption);
+	}
+
+	private static void copy(Path from, Path to, Path lostFrom, String lost) throws IOException {
+	/* Copies the grid in from to to. If lost is not null, that file is taken from the grid in lostFrom instead, as if none of the writes to it since
+	 * then had reached the disk, and the header is marked dirty */
+		for (String name : new String[]{"header", "open", "parent"})
+			Files.copy((name.equals(lost) ? lostFrom : from).resolve(name), to.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+		if (lost == null) return;
+		try (FileChannel channel = FileChannel.open(to.resolve("header"), StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[1]), H_CLEAN);
+		}
+	}
+}
@@ -1,82 +1,392 @@
-/* Class that checks for whether or not an n-by-n grid of open and closed sites percolates - that is, whether or not any site on the top row is connected with any 
- * site in the bottom row by a path of open sites. Uses a union-find mechanism (supplied by the class WeightedQuickUnionUF) to tie open sites together by a common 
- * root. Used by PercolationVisualizer to run a Monte Carlo simulation on percolating an n-by-n grid. Does not account for backwash */
+/* Class that checks for whether or not an n-by-n grid of open and closed sites percolates - that is, whether or not any site on the top row is connected with any
+ * site in the bottom row by a path of open sites. The grid can be any Lattice (square, 8-neighbour or cubic), for site or for bond percolation. Uses a
+ * union-find mechanism (weighted by size, with path halving) to tie open sites together by a common root. The union-find is inlined into flat primitive arrays
+ * and open sites are kept in a bitset, so a site costs about 5 bytes and there are no per-row objects. Instead of virtual top and bottom sites, every root
+ * carries flags for whether its component touches the top or the bottom row. A site is full only if its own component touches the top, so isFull() does not
+ * suffer from backwash. Used by PercolationVisualizer to run a Monte Carlo simulation on percolating an n-by-n grid. Listeners can subscribe to the moment the
+ * grid percolates, sites become full and clusters merge; the events are raised from inside open() as the unions happen. While anyone listens, the sites of every
+ * component are also kept on a ring, so the sites of a component that reaches the top can be reported one by one. The number of clusters, the size of the
+ * largest one and (optionally) a log-binned histogram of cluster sizes are kept up to date the same way, so none of them needs a scan of the grid */
 
-import edu.princeton.cs.algs4.WeightedQuickUnionUF;
+import java.util.Arrays;
+import java.util.SplittableRandom;
 
 public class Percolation {
-	
-	private WeightedQuickUnionUF id;
-	private int[][] grid;
-	private int n;
+
+	private int[] parent;   // parent[i] is the parent of site i in the union-find, roots hold minus the size of their component
+	private byte[] state;   // for roots: the TOP and BOTTOM flags of the component
+	private long[] open;    // bitset of open sites, bit i is set when site i is open
+	private long[] bonds;   // bitset of open bonds in bond percolation, null in site percolation
+	private final Lattice lattice;
+	private final int[] offsets;            // index offsets of the neighbours of a site, from the lattice
+	private final int topEnd, bottomStart;  // index ranges of the top and bottom layer, from the lattice
+	private final int n;
+	private final int width;                // padded row length, so (row, col) of a 2D lattice is at index row * width + col
 	private int openSites = 0;
-	
-	public Percolation(int n) {
-	/* Initializes Percolation as an n-by-n grid. id is initialized as a UnionFind object that keeps track of which sites are connected to
-	 * each other, while grid keeps track of which grids are open */
-		if (n <= 0) throw new IllegalArgumentException();
-		this.n = n;
-		id = new WeightedQuickUnionUF((n * n) + 2); // comes with two virtual sites for quick connectivity check between top and bottom row
-		grid = new int[n][n];
-		
-		for (int i = 1; i <= n; i++)
-		{	id.union(0, i);	}   // to connect the top row to the virtual top site
-		
-		for (int i = (n * (n - 1) + 1); i <= (n * n); i++) 
-		{	id.union(i, (n * n) + 1);	}   // to connect the bottom row to the bottom virtual site
+	private int openBonds = 0;
+	private boolean percolates = false;
+	private Listener[] listeners = null;   // null rather than empty, so open() pays a single null check when nobody listens
+	private int[] next;                    // next[i] is the next site on the ring of i's component, null when nobody listens
+	private int clusters = 0;              // number of components of open sites
+	private int largestCluster = 0;        // size of the largest component, only ever grows until reset()
+	private int[] histogram = null;        // histogram[k] counts components of size [2^k, 2^(k+1)), null until trackClusterHistogram()
+
+	private static final int TOP = 0x01;      // component contains a site in the top row
+	private static final int BOTTOM = 0x02;   // component contains a site in the bottom row
+
+	public interface Listener {
+	/* Receives events raised by open(). Sites are given as ordinals, so on an n-by-n grid a site sits at row site / n + 1 and column
+	 * site % n + 1. Every method has an empty default, so a listener only implements the events it cares about. Listeners must not subscribe
+	 * or unsubscribe from inside an event */
+
+		default void percolated(int site) {}
+		// Opening site made the grid percolate for the first time
+
+		default void becameFull(int site) {}
+		// site became full. Raised once for every site that gets connected to the top row, the opened site included
+
+		default void clustersMerged(int site, int size) {}
+		// Opening site joined two clusters into one cluster of size sites. Raised once per union, so up to once per neighbour
 	}
-		
-	public void open(int row, int col) {   
+
+	public Percolation(int n)
+	// Initializes Percolation as an n-by-n grid where every site has 4 neighbours
+	{	this(Lattice.square(n), false);	}
+
+	public Percolation(Lattice lattice)
+	// Site percolation on any lattice: all sites start closed and every pair of open neighbours is connected
+	{	this(lattice, false);	}
+
+	public Percolation(Lattice lattice, boolean bondPercolation) {
+	/* parent and state make up the union-find that keeps track of which sites are connected to each other, while open keeps track of which
+	 * sites are open. All three are indexed by the lattice's padded indices. No unions are needed up front, top and bottom layers are flagged
+	 * as their sites are opened. In bond percolation every site is open from the start and openBond() connects pairs of neighbours instead */
+		if (lattice == null) throw new NullPointerException();
+		this.lattice = lattice;
+		this.n = lattice.n();
+		this.width = n + 2;
+		this.offsets = lattice.offsets();
+		this.topEnd = lattice.topEnd();
+		this.bottomStart = lattice.bottomStart();
+		int size = lattice.size();
+		if (bondPercolation && (long) size * lattice.directions() > Integer.MAX_VALUE - 64)   // bond numbers index * directions() + d have to fit into an int
+			throw new IllegalArgumentException("lattice too large for bond percolation: " + lattice);
+		parent = new int[size];
+		state = new byte[size];
+		open = new long[(size + 63) >>> 6];
+		Arrays.fill(parent, -1);
+
+		if (bondPercolation) {
+			bonds = new long[(size * lattice.directions() + 63) >>> 6];
+			for (int k = 0, sites = lattice.sites(); k < sites; k++) {
+				int index = lattice.index(k);
+				open[index >>> 6] |= 1L << index;
+			}
+			reset();
+		}
+	}
+
+	public void addListener(Listener listener) {
+	// Subscribes listener to the events raised by open(). The first one builds the rings of the components that are already there
+		if (listener == null) throw new NullPointerException();
+		if (listeners == null) {
+			listeners = new Listener[]{listener};
+			buildRings();
+		}
+		else {
+			listeners = Arrays.copyOf(listeners, listeners.length + 1);
+			listeners[listeners.length - 1] = listener;
+		}
+	}
+
+	public void removeListener(Listener listener) {
+	// Unsubscribes listener, if it was subscribed
+		if (listeners == null) return;
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] != listener) continue;
+			if (listeners.length == 1) {
+				listeners = null;
+				next = null;
+			}
+			else {
+				Listener[] copy = new Listener[listeners.length - 1];
+				System.arraycopy(listeners, 0, copy, 0, i);
+				System.arraycopy(listeners, i + 1, copy, i, copy.length - i);
+				listeners = copy;
+			}
+			return;
+		}
+	}
+
+	private void buildRings() {
+	// Puts every open site on a ring of its own, then splices every site that is not a root into the ring of its root
+		next = new int[parent.length];
+		for (int w = 0; w < open.length; w++)
+			for (long bits = open[w]; bits != 0; bits &= bits - 1) {
+				int site = (w << 6) + Long.numberOfTrailingZeros(bits);
+				next[site] = site;
+			}
+		for (int w = 0; w < open.length; w++)
+			for (long bits = open[w]; bits != 0; bits &= bits - 1) {
+				int site = (w << 6) + Long.numberOfTrailingZeros(bits);
+				if (parent[site] < 0) continue;
+				int root = find(site);
+				next[site] = next[root];
+				next[root] = site;
+			}
+	}
+
+	public void reset() {
+	/* Closes every site (or in bond percolation, every bond) again, so the same instance can run another trial without allocating. Closed
+	 * sites are never touched by union(), so only the open ones need their parent and state restored. In bond percolation the sites stay
+	 * open and get their top and bottom flags back */
+		for (int w = 0; w < open.length; w++) {
+			for (long bits = open[w]; bits != 0; bits &= bits - 1) {
+				int site = (w << 6) + Long.numberOfTrailingZeros(bits);
+				parent[site] = -1;
+				state[site] = (byte) (bonds == null ? 0 : flags(site));
+				if (next != null) next[site] = site;
+			}
+		}
+		if (histogram != null) Arrays.fill(histogram, 0);
+		percolates = false;
+		openBonds = 0;
+
+		if (bonds == null) {
+			Arrays.fill(open, 0L);
+			openSites = 0;
+			clusters = 0;
+			largestCluster = 0;
+		}
+		else {   // every site is its own cluster, and a single layer (n = 1) percolates without any bonds
+			Arrays.fill(bonds, 0L);
+			openSites = lattice.sites();
+			clusters = openSites;
+			largestCluster = 1;
+			if (histogram != null) histogram[0] = clusters;
+			percolates = topEnd > bottomStart;
+		}
+	}
+
+	public void open(int row, int col) {
 	/* To open a random site and connect with any adjacent open sites. Row and col inputs begin at 1 instead of 0, so
-	 * a call to open the first site in the grid will take the input form of (row 1, col 1) */
+	 * a call to open the first site in the grid will take the input form of (row 1, col 1). Only for 2D lattices */
 		if (!validate(row, col)) throw new IndexOutOfBoundsException();
-		
-		if (!isOpen(row, col)) {
-			grid[row - 1][col - 1] = 1;
-			openSites++;
-			
-			for (int i = -1; i < 2; i += 2) {
-				if (validate(row + i, col) && isOpen(row + i, col)) {
-					id.union(xyto1D(row - 1, col), xyto1D(row + i - 1, col));
-				} if (validate(row, col + i) && isOpen(row, col + i)) {
-					id.union(xyto1D(row - 1, col), xyto1D(row - 1, col + i));
-				}
-			}
+		openIndex(row * width + col);
+	}
+
+	public void open(int site)
+	// Opens the site with the given ordinal, on any lattice
+	{	openIndex(index(site));	}
+
+	void openIndex(int site) {
+	/* Opens the site at a padded index and unions it with its open neighbours. Used by PercolationStats, which draws padded indices from a
+	 * permutation of the lattice's sites and already knows they are valid */
+		if (isOpenIndex(site)) return;
+		open[site >>> 6] |= 1L << site;
+		openSites++;
+		int flags = flags(site);
+		state[site] = (byte) flags;
+		clusters++;
+		if (largestCluster == 0) largestCluster = 1;
+		if (histogram != null) histogram[0]++;
+		if (listeners != null) {
+			next[site] = site;
+			if ((flags & TOP) != 0) for (Listener listener : listeners) listener.becameFull(lattice.ordinal(site));
 		}
+
+		for (int offset : offsets)
+			if (isOpenIndex(site + offset)) union(site, site + offset);
+
+		connected(site);
 	}
-	
-    private int xyto1D(int x, int y) {
-        // Converts a 2D index value to its corresponding 1D index value
-            return (x * n) + y;   
-    }
-       
+
+	void openBond(int bond) {
+	/* Opens a bond, numbered as in Lattice, and unions the two sites it joins. Only in bond percolation, where every site is already open.
+	 * Used by PercolationStats, which draws bonds from a permutation of the lattice's bonds */
+		if ((bonds[bond >>> 6] & (1L << bond)) != 0) return;
+		bonds[bond >>> 6] |= 1L << bond;
+		openBonds++;
+		int directions = offsets.length / 2;
+		int site = bond / directions;
+		union(site, site + lattice.forward(bond - site * directions));
+		connected(site);
+	}
+
+	private void connected(int site) {
+	// Checks for percolation and raises the event after site was opened or got a new bond
+		if (percolates || (state[find(site)] & (TOP | BOTTOM)) != (TOP | BOTTOM)) return;
+		percolates = true;
+		if (listeners != null) for (Listener listener : listeners) listener.percolated(lattice.ordinal(site));
+	}
+
+    private int flags(int site)
+    // TOP and BOTTOM flags of a single site, from its position on the first axis
+    {	return (site < topEnd ? TOP : 0) | (site >= bottomStart ? BOTTOM : 0);	}
+
     private boolean validate(int row, int col) {
     // Ensure a site at index [row][col] on grid falls within a valid site
+        if (lattice.dimensions() != 2) throw new UnsupportedOperationException("row and col only address 2D lattices");
         return (row <= n && col <= n && row >= 1 && col >= 1);
     }
-	
-	public boolean isOpen(int row, int col) {   
+
+    private int index(int site) {
+    // Padded index of the site with the given ordinal
+        if (site < 0 || site >= lattice.sites()) throw new IndexOutOfBoundsException();
+        return lattice.index(site);
+    }
+
+    private boolean isOpenIndex(int site)
+    // Bitset lookup for a padded site index
+    {	return (open[site >>> 6] & (1L << site)) != 0;	}
+
+    private int find(int p) {
+    // Returns the root of p. Path halving points every other site on the way up at its grandparent, so trees stay flat without a second pass
+        int q;
+        while ((q = parent[p]) >= 0) {
+            int r = parent[q];
+            if (r < 0) return q;
+            parent[p] = r;
+            p = r;
+        }
+        return p;
+    }
+
+    private void union(int p, int q) {
+    /* Links the root of the smaller component under the root of the larger one. The surviving root inherits the TOP and BOTTOM flags of
+     * both components. p is the site being opened, which is what the listeners are told about. While anyone listens, swapping the next
+     * sites of the two roots joins their rings into one, and if only one of them touched the top, the ring of the other one is walked
+     * first to report its sites as full. Every site becomes full only once, so that walk costs O(1) per site overall */
+        int rootP = find(p);
+        int rootQ = find(q);
+        if (rootP == rootQ) return;
+
+        int sizeP = -parent[rootP];
+        int sizeQ = -parent[rootQ];
+        int flagsP = state[rootP];
+        int flagsQ = state[rootQ];
+        int root = sizeP < sizeQ ? rootQ : rootP;
+        parent[root == rootP ? rootQ : rootP] = root;
+        parent[root] = -(sizeP + sizeQ);
+        state[root] = (byte) (flagsP | flagsQ);
+
+        clusters--;
+        if (sizeP + sizeQ > largestCluster) largestCluster = sizeP + sizeQ;
+        if (histogram != null) {
+            histogram[bin(sizeP)]--;
+            histogram[bin(sizeQ)]--;
+            histogram[bin(sizeP + sizeQ)]++;
+        }
+
+        if (listeners != null) {
+            if (((flagsP ^ flagsQ) & TOP) != 0) {
+                int first = (flagsP & TOP) == 0 ? rootP : rootQ, site = first;
+                do {
+                    for (Listener listener : listeners) listener.becameFull(lattice.ordinal(site));
+                    site = next[site];
+                } while (site != first);
+            }
+            int ring = next[rootP];
+            next[rootP] = next[rootQ];
+            next[rootQ] = ring;
+            for (Listener listener : listeners) listener.clustersMerged(lattice.ordinal(p), sizeP + sizeQ);
+        }
+    }
+
+    private static int bin(int size)
+    // Histogram bin of a component size, floor(log2(size))
+    {	return 31 - Integer.numberOfLeadingZeros(size);	}
+
+	public void trackClusterHistogram() {
+	/* Starts keeping the log-binned histogram of cluster sizes up to date. Off by default because it costs three array updates per union.
+	 * If sites are already open the histogram is built with one pass over them */
+		if (histogram != null) return;
+		histogram = new int[32];
+		for (int w = 0; w < open.length; w++)
+			for (long bits = open[w]; bits != 0; bits &= bits - 1) {
+				int site = (w << 6) + Long.numberOfTrailingZeros(bits);
+				if (parent[site] < 0) histogram[bin(-parent[site])]++;
+			}
+	}
+
+	public int[] clusterHistogram() {
+	// Returns a copy of the histogram: element k is the number of clusters with between 2^k and 2^(k+1) - 1 sites
+		if (histogram == null) throw new IllegalStateException("call trackClusterHistogram() first");
+		return histogram.clone();
+	}
+
+	public int numberOfClusters()
+	// Number of clusters (connected components) of open sites
+	{	return clusters;	}
+
+	public int largestCluster()
+	// Number of sites in the largest cluster
+	{	return largestCluster;	}
+
+	public boolean isOpen(int row, int col) {
 	// Check if a given site is open
-		if (!validate(row, col)) throw new IndexOutOfBoundsException();	
-		else return grid[row - 1][col - 1] == 1;
+		if (!validate(row, col)) throw new IndexOutOfBoundsException();
+		else return isOpenIndex(row * width + col);
 	}
-	
-	public boolean isFull(int row, int col) {   
+
+	public boolean isOpen(int site)
+	// Check if the site with the given ordinal is open
+	{	return isOpenIndex(index(site));	}
+
+	public boolean isFull(int row, int col) {
 	// Check if a given site is full
-		if (!validate(row, col)) throw new IndexOutOfBoundsException();	
-		else return id.connected(xyto1D(row - 1, col), 0) && isOpen(row, col);
+		if (!validate(row, col)) throw new IndexOutOfBoundsException();
+		else return isFullIndex(row * width + col);
 	}
-	
-	public int numberOfOpenSites()   
+
+	public boolean isFull(int site)
+	// Check if the site with the given ordinal is full
+	{	return isFullIndex(index(site));	}
+
+	private boolean isFullIndex(int site)
+	{	return isOpenIndex(site) && (state[find(site)] & TOP) != 0;	}
+
+	public int numberOfOpenSites()
 	// Total number of open sites
 	{	return openSites;	}
-	
-	public boolean percolates()    
-	// does the object percolate?
-	{	return id.connected(0, (n * n) + 1);    }
-	
+
+	public int numberOfOpenBonds()
+	// Total number of open bonds, always 0 in site percolation
+	{	return openBonds;	}
+
+	public Lattice lattice()
+	{	return lattice;	}
+
+	public boolean percolates()
+	// does the object percolate? Set by open() as soon as one component touches both the top and the bottom row
+	{	return percolates;    }
+
 	public static void main(String[] args) {
-		
+	/* Benchmark: opens random sites until the grid percolates and reports throughput in opened sites per second along with the measured
+	 * heap cost per site. Grid sizes can be passed as arguments and default to 1000, 4000 and 16000 (the last one needs about -Xmx2g) */
+		int[] sizes = {1000, 4000, 16000};
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++) sizes[i] = Integer.parseInt(args[i]);
+		}
+
+		Runtime runtime = Runtime.getRuntime();
+		SplittableRandom random = new SplittableRandom(42);
+		for (int n : sizes) {
+			System.gc();
+			long before = runtime.totalMemory() - runtime.freeMemory();
+			Percolation percolator = new Percolation(n);
+			System.gc();
+			long bytes = runtime.totalMemory() - runtime.freeMemory() - before;
+
+			long start = System.nanoTime();
+			while (!percolator.percolates())
+			{	percolator.open(random.nextInt(n) + 1, random.nextInt(n) + 1);	}
+			double seconds = (System.nanoTime() - start) / 1e9;
+
+			System.out.printf("n = %d: %.0f sites/sec, %.2f bytes/site, threshold %.4f%n", n, percolator.numberOfOpenSites() / seconds,
+			                  (double) bytes / ((long) n * n), percolator.numberOfOpenSites() / ((double) n * n));
+		}
 	}
 
 }
@@ -1,9 +1,29 @@
 /* Class that runs a MonteCarlo simulation on an n-by-n grid of closed and open sites, to computationally test the threshold at which that grid will mostly likely
- * percolate. Threshold is represented as the percentage of sites in the grid that are open when it Percolates. Other methods return useful statistics related to 
- * that grid's percolation. Draws from the class Percolation */
+ * percolate. Threshold is represented as the percentage of sites in the grid that are open when it Percolates. Other methods return useful statistics related to
+ * that grid's percolation. Draws from the class Percolation. Trials are independent of each other, so they are split across a ForkJoinPool. Every trial draws
+ * from its own random generator, seeded from the seed and the trial number, which makes the results for a given seed the same whatever the number of threads
+ * and means no two threads ever share an RNG. The generator is a SplittableRandom unless another RandomGenerator factory is passed in. Sites are opened in the
+ * order of a random permutation, so every draw opens a new site and a trial takes at most n * n draws. Besides a fixed number of trials, untilHalfWidth() keeps
+ * running trials until the confidence interval is narrow enough or a time budget runs out. Alongside the threshold, the size of the largest cluster and the
+ * number of clusters at the moment of percolation are recorded, read straight off Percolation's live counters. Any Lattice can be studied, for site or bond
+ * percolation; in bond percolation the threshold is the fraction of open bonds */
 
-import edu.princeton.cs.algs4.StdRandom;
+import com.sun.management.ThreadMXBean;
 import edu.princeton.cs.algs4.StdStats;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGeneratorFactory;
 
 public class PercolationStats {   // Runs statistical analysis on Percolation objects
 	private int myTrials;   // to keep track of sample size as instance variable
@@ -12,45 +32,347 @@ public class PercolationStats {   // Runs statistical analysis on Percolation ob
 	private double stdDeviation;   // to store standard deviation as instance variable
 	private double confidenceLo;
 	private double confidenceHi;
-	
-	public PercolationStats(int n, int trials) {
+	private double largestMean, largestLo, largestHi;     // largest cluster at percolation, as a fraction of all sites
+	private double clustersMean, clustersLo, clustersHi;  // number of clusters at percolation
+
+	/* Trials are split into about this many tasks, enough for work stealing to even out slow trials on large machines. It must not depend
+	 * on the pool size: the trials of one task continue each other's permutation, so the task boundaries are part of what makes a seed reproducible */
+	private static final int TASKS = 512;
+
+	public PercolationStats(int n, int trials)
 	// Initializes PercolationStats to randomly open sites on an n-by-n grid until that grid Percolates, and repeats a total of trials times
-		if (n <= 0 || trials <= 0) throw new IllegalArgumentException();
-		
+	{	this(n, trials, ThreadLocalRandom.current().nextLong());	}
+
+	public PercolationStats(int n, int trials, long seed)
+	// Same as above, but reproducible: the same seed always gives the same thresholds. Runs on the common ForkJoinPool
+	{	this(n, trials, seed, ForkJoinPool.commonPool());	}
+
+	public PercolationStats(int n, int trials, long seed, ForkJoinPool pool)
+	// Same as above, on the given pool
+	{	this(Lattice.square(n), false, trials, seed, pool);	}
+
+	public PercolationStats(Lattice lattice, boolean bondPercolation, int trials, long seed, ForkJoinPool pool)
+	// Runs site or bond percolation on any Lattice
+	{	this(lattice, bondPercolation, trials, seed, pool, SplittableRandom::new);	}
+
+	public PercolationStats(Lattice lattice, boolean bondPercolation, int trials, long seed, ForkJoinPool pool,
+	                        LongFunction<? extends RandomGenerator> generators) {
+	/* Runs the trials on the given pool, each one drawing from generators.apply(its trial seed), for example
+	 * RandomGeneratorFactory.of("Xoroshiro128PlusPlus")::create. thresholds is allocated once and every trial writes its own slot, so workers never share state */
+		if (trials <= 0) throw new IllegalArgumentException();
+		if (lattice == null || pool == null || generators == null) throw new NullPointerException();
+
 		myTrials = trials;
 		thresholds = new double[trials];
-		
-		for (int i = 0; i < trials; i++) {   
-		// Runs trials number of tests on Percolation objects and keep track of when they percolate
-			Percolation percolator = new Percolation(n);
-			while (!percolator.percolates()) 
-			{	percolator.open(StdRandom.uniform(n) + 1, StdRandom.uniform(n) + 1);	}
-			thresholds[i] = percolator.numberOfOpenSites() / Math.pow(n, 2); //threshold is percentage of sites open when object percolates
-		}
-		
-	    myMean = StdStats.mean(thresholds);
-	    stdDeviation = StdStats.stddev(thresholds);
+		double[] largest = new double[trials];
+		double[] clusters = new double[trials];
+
+		int grain = Math.max(1, trials / TASKS);
+		pool.invoke(new Trials(lattice, bondPercolation, seed, generators, thresholds, largest, clusters, new ConcurrentLinkedQueue<Runner>(), 0, trials, grain));
+
+	    summarize(StdStats.mean(thresholds), StdStats.stddev(thresholds));
+	    summarizeClusters(StdStats.mean(largest), StdStats.stddev(largest), StdStats.mean(clusters), StdStats.stddev(clusters));
+	}
+
+	private PercolationStats() {
+	// Used by untilHalfWidth(), which fills in the statistics itself
+	}
+
+	public static PercolationStats untilHalfWidth(int n, double epsilon, long timeBudgetMillis)
+	// Runs trials until the 95% confidence interval is at most epsilon wide on either side of the mean, or timeBudgetMillis have passed
+	{	return untilHalfWidth(n, epsilon, timeBudgetMillis, ThreadLocalRandom.current().nextLong());	}
+
+	public static PercolationStats untilHalfWidth(int n, double epsilon, long timeBudgetMillis, long seed)
+	// Same as above, reproducible for a given seed
+	{	return untilHalfWidth(Lattice.square(n), false, epsilon, timeBudgetMillis, seed);	}
+
+	public static PercolationStats untilHalfWidth(Lattice lattice, boolean bondPercolation, double epsilon, long timeBudgetMillis, long seed)
+	// Runs site or bond percolation on any Lattice
+	{	return untilHalfWidth(lattice, bondPercolation, epsilon, timeBudgetMillis, seed, SplittableRandom::new);	}
+
+	public static PercolationStats untilHalfWidth(Lattice lattice, boolean bondPercolation, double epsilon, long timeBudgetMillis, long seed,
+	                                              LongFunction<? extends RandomGenerator> generators) {
+	/* Sequential stopping: mean and variance are updated after every trial with Welford's method, so no thresholds are kept. Stops as soon as
+	 * 1.96 * stddev / sqrt(trials) < epsilon or the budget is spent, but never before two trials, so the stddev is defined. Trials run one after
+	 * another on the calling thread, so the result only depends on the seed and on where the run stopped */
+		if (!(epsilon > 0) || timeBudgetMillis <= 0) throw new IllegalArgumentException();
+		if (lattice == null || generators == null) throw new NullPointerException();
+
+		long start = System.nanoTime();
+		long budget = TimeUnit.MILLISECONDS.toNanos(timeBudgetMillis);   // saturates, so Long.MAX_VALUE means no limit
+		Runner runner = new Runner(lattice, bondPercolation);
+
+		RunningStats running = new RunningStats();
+		RunningStats largest = new RunningStats();
+		RunningStats clusters = new RunningStats();
+		while (running.count < Integer.MAX_VALUE) {
+			running.add(runner.run(generators.apply(trialSeed(seed, (int) running.count))));
+			largest.add(runner.largestCluster());
+			clusters.add(runner.percolator.numberOfClusters());
+			if (running.count < 2) continue;
+			if (1.96 * running.stddev() / Math.sqrt(running.count) < epsilon) break;
+			if (System.nanoTime() - start >= budget) break;
+		}
+
+		PercolationStats stats = new PercolationStats();
+		stats.myTrials = (int) running.count;
+		stats.summarize(running.mean, running.stddev());
+		stats.summarizeClusters(largest.mean, largest.stddev(), clusters.mean, clusters.stddev());
+		return stats;
+	}
+
+	private void summarize(double mean, double stddev) {
+	// Fills in the statistics from the sample mean and standard deviation of myTrials thresholds
+	    myMean = mean;
+	    stdDeviation = stddev;
 	    confidenceLo = myMean - (1.96 * stdDeviation) / Math.sqrt(myTrials);
 	    confidenceHi = myMean + (1.96 * stdDeviation) / Math.sqrt(myTrials);
 	}
-	
+
+	private void summarizeClusters(double largest, double largestStddev, double clusters, double clustersStddev) {
+	// Same as summarize(), for the cluster metrics
+	    largestMean = largest;
+	    largestLo = largest - (1.96 * largestStddev) / Math.sqrt(myTrials);
+	    largestHi = largest + (1.96 * largestStddev) / Math.sqrt(myTrials);
+	    clustersMean = clusters;
+	    clustersLo = clusters - (1.96 * clustersStddev) / Math.sqrt(myTrials);
+	    clustersHi = clusters + (1.96 * clustersStddev) / Math.sqrt(myTrials);
+	}
+
+	private static class RunningStats {
+	// Welford's online mean and variance, numerically stable without keeping the samples
+		private long count;
+		private double mean;
+		private double m2;   // sum of squared differences from the current mean
+
+		void add(double x) {
+			count++;
+			double delta = x - mean;
+			mean += delta / count;
+			m2 += delta * (x - mean);
+		}
+
+		double stddev()
+		// Sample standard deviation, same as StdStats.stddev()
+		{	return count > 1 ? Math.sqrt(m2 / (count - 1)) : Double.NaN;	}
+	}
+
+	private static class Trials extends RecursiveAction {
+	/* Runs trials [lo, hi), splitting the range in half until it is no bigger than grain. Leaf tasks borrow a Runner from idle and hand it
+	 * back when they are done, so there are only ever about as many grids as there are workers, however many tasks and trials there are */
+		private static final long serialVersionUID = 1L;
+
+		private final Lattice lattice;
+		private final boolean bonds;
+		private final long seed;
+		private final LongFunction<? extends RandomGenerator> generators;
+		private final double[] thresholds, largest, clusters;
+		private final ConcurrentLinkedQueue<Runner> idle;
+		private final int lo, hi, grain;
+
+		Trials(Lattice lattice, boolean bonds, long seed, LongFunction<? extends RandomGenerator> generators, double[] thresholds, double[] largest,
+		       double[] clusters, ConcurrentLinkedQueue<Runner> idle, int lo, int hi, int grain) {
+			this.lattice = lattice;
+			this.bonds = bonds;
+			this.seed = seed;
+			this.generators = generators;
+			this.thresholds = thresholds;
+			this.largest = largest;
+			this.clusters = clusters;
+			this.idle = idle;
+			this.lo = lo;
+			this.hi = hi;
+			this.grain = grain;
+		}
+
+		protected void compute() {
+			if (hi - lo <= grain) {
+				Runner runner = idle.poll();
+				if (runner == null) runner = new Runner(lattice, bonds);
+				runner.rewind();
+				for (int i = lo; i < hi; i++) {
+					thresholds[i] = runner.run(generators.apply(trialSeed(seed, i)));
+					largest[i] = runner.largestCluster();
+					clusters[i] = runner.percolator.numberOfClusters();
+				}
+				idle.offer(runner);
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			invokeAll(new Trials(lattice, bonds, seed, generators, thresholds, largest, clusters, idle, lo, mid, grain),
+			          new Trials(lattice, bonds, seed, generators, thresholds, largest, clusters, idle, mid, hi, grain));
+		}
+	}
+
+	private static class Runner {
+	/* Runs trials one after another on a single Percolation that is reset() between trials, so a batch of trials allocates its grid and
+	 * its permutation buffer once. Any permutation left over from the last trial is as good a starting point as the identity */
+		private final Percolation percolator;
+		private final Lattice lattice;
+		private final boolean bonds;
+		private final int[] order;   // padded site indices, or bond ids in bond percolation
+
+		Runner(Lattice lattice, boolean bonds) {
+			this.lattice = lattice;
+			this.bonds = bonds;
+			percolator = new Percolation(lattice, bonds);
+			order = new int[bonds ? lattice.bonds() : lattice.sites()];
+			rewind();
+		}
+
+		void rewind() {
+		// Puts the permutation back in lattice order, so a batch of trials does not depend on which batches this Runner ran before
+			if (bonds) lattice.fillBonds(order);
+			else lattice.fillSites(order);
+		}
+
+		double run(RandomGenerator random) {
+		/* Opens sites (or bonds) on a cleared grid until it percolates and returns the fraction that is open. The order is shuffled lazily
+		 * with Fisher-Yates: step k swaps a random element of order[k, length) into order[k] and opens it, so no draw is wasted on something
+		 * already open and only as much of the permutation is generated as the trial needs */
+			percolator.reset();
+			int k = 0;
+			while (!percolator.percolates()) {
+				int j = k + random.nextInt(order.length - k);
+				int next = order[j];
+				order[j] = order[k];
+				order[k++] = next;
+				if (bonds) percolator.openBond(next);
+				else percolator.openIndex(next);
+			}
+			return k / (double) order.length; //threshold is percentage of sites open when object percolates
+		}
+
+		double largestCluster()
+		// Largest cluster of the last trial as a fraction of all sites
+		{	return percolator.largestCluster() / (double) lattice.sites();	}
+	}
+
+	private static long trialSeed(long seed, int trial) {
+	/* Seed of the RNG stream for one trial. Mixes seed and trial number with the SplitMix64 finalizer, so neighbouring trials get
+	 * unrelated streams rather than shifted copies of each other */
+		long z = seed + (trial + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	public int trials()
+	// Returns the number of trials that were run
+	{	return myTrials;	}
+
 	public double mean()
 	// Returns the mean threshold at which the Percolation grid percolates
 	{	return myMean;   }
-	
+
 	public double stddev()
 	// Returns standard deviation of threshold
 	{	return stdDeviation;    }
-	
+
 	public double confidenceLo()
 	// Returns the low confidence interval of percolation
 	{	return confidenceLo;   }
-	
+
 	public double confidenceHi()
 	// Returns the high confidence interval of percolation
 	{	return confidenceHi;   }
-	
+
+	public double meanLargestCluster()
+	// Returns the mean size of the largest cluster at the moment of percolation, as a fraction of all sites
+	{	return largestMean;	}
+
+	public double largestClusterConfidenceLo()
+	// Returns the low end of the confidence interval of the largest cluster
+	{	return largestLo;	}
+
+	public double largestClusterConfidenceHi()
+	// Returns the high end of the confidence interval of the largest cluster
+	{	return largestHi;	}
+
+	public double meanClusters()
+	// Returns the mean number of clusters at the moment of percolation
+	{	return clustersMean;	}
+
+	public double clustersConfidenceLo()
+	// Returns the low end of the confidence interval of the number of clusters
+	{	return clustersLo;	}
+
+	public double clustersConfidenceHi()
+	// Returns the high end of the confidence interval of the number of clusters
+	{	return clustersHi;	}
+
 	public static void main(String[] args) {
+	/* Benchmark: runs the same seeded study on pools of 1, 2, 4, ... threads up to the core count and reports trials/sec, the speedup over
+	 * one thread, the allocation rate of all threads and the time spent in GC. The mean has to come out identical on every line. Then compares
+	 * random generators at every pool size, against one java.util.Random shared by all trials the way StdRandom is. Then runs site and bond
+	 * percolation on every lattice, with the cube sized to about as many sites as the square. Grid size and trial count can be passed as arguments */
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int trials = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		int cores = Runtime.getRuntime().availableProcessors();
+
+		double base = 0;
+		for (int threads = 1; ; threads = Math.min(2 * threads, cores)) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			long allocated = allocatedBytes();
+			long gcMillis = gcMillis();
+			long start = System.nanoTime();
+			PercolationStats stats = new PercolationStats(n, trials, 42, pool);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			allocated = allocatedBytes() - allocated;
+			gcMillis = gcMillis() - gcMillis;
+			pool.shutdown();
+
+			if (threads == 1) base = seconds;
+			System.out.printf("%3d threads: %.0f trials/sec, speedup %.2f, %.1f MB/s allocated, %d ms GC, mean %.6f, largest cluster %.4f, "
+			                  + "%.1f clusters%n", threads, trials / seconds, base / seconds, allocated / seconds / 1e6, gcMillis, stats.mean(),
+			                  stats.meanLargestCluster(), stats.meanClusters());
+			if (threads == cores) break;
+		}
+
+		final Random shared = new Random(42);
+		String[] names = {"SplittableRandom", "Xoroshiro128PlusPlus", "L64X128MixRandom", "shared Random"};
+		List<LongFunction<? extends RandomGenerator>> generators = Arrays.asList(
+			SplittableRandom::new, RandomGeneratorFactory.of("Xoroshiro128PlusPlus")::create,
+			RandomGeneratorFactory.of("L64X128MixRandom")::create, seed -> shared);
+		for (int g = 0; g < names.length; g++) {
+			StringBuilder line = new StringBuilder(String.format("%-20s", names[g]));
+			for (int threads = 1; ; threads = Math.min(2 * threads, cores)) {
+				ForkJoinPool pool = new ForkJoinPool(threads);
+				long start = System.nanoTime();
+				new PercolationStats(Lattice.square(n), false, trials, 42, pool, generators.get(g));
+				line.append(String.format("  %d threads %.0f trials/sec", threads, trials / ((System.nanoTime() - start) / 1e9)));
+				pool.shutdown();
+				if (threads == cores) break;
+			}
+			System.out.println(line);
+		}
+
+		int side = Math.max(2, (int) Math.round(Math.cbrt((double) n * n)));
+		for (Lattice lattice : new Lattice[]{Lattice.square(n), Lattice.moore(n), Lattice.cubic(side)}) {
+			for (boolean bonds : new boolean[]{false, true}) {
+				long start = System.nanoTime();
+				PercolationStats stats = new PercolationStats(lattice, bonds, trials, 42, ForkJoinPool.commonPool());
+				double seconds = (System.nanoTime() - start) / 1e9;
+				System.out.printf("%-10s %s: %.0f trials/sec, threshold %.4f, CI [%.4f, %.4f]%n", lattice, bonds ? "bond" : "site",
+				                  trials / seconds, stats.mean(), stats.confidenceLo(), stats.confidenceHi());
+			}
+		}
+	}
+
+	private static long allocatedBytes() {
+	// Bytes allocated so far by all live threads, as counted by HotSpot
+		ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long total = 0;
+		for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds()))
+			if (bytes > 0) total += bytes;
+		return total;
+	}
 
+	private static long gcMillis() {
+	// Total time spent in garbage collection so far
+		long total = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			total += Math.max(0, gc.getCollectionTime());
+		return total;
 	}
 }
@@ -0,0 +1,240 @@
+/* A RandomizedQueue that many threads can share. Items are spread over a power-of-two number of shards, by default one per core, and each shard is an
+ * ordinary RandomizedQueue guarded by its own lock, resizing on its own. enqueue() goes to the calling thread's shard, so producers on different threads
+ * rarely touch the same lock. dequeue() and sample() pick a shard with probability proportional to its size and then an item uniformly within it, so
+ * every item has the same chance 1/size() to be picked; picking a shard uniformly instead would favour items in small shards. If the picked shard turns
+ * out to be empty by the time its lock is taken, the other shards are tried in turn.
+ *
+ * Bias: the shard sizes are read without locks, one after another, so while other threads are changing the queue the sizes used for the pick can be off.
+ * If at most c operations complete during one pick, every shard size used is off by at most c, and an item in a shard holding s items is picked with
+ * probability between (s - c) / ((N + c) s) and (s + c) / ((N - c) s), where N is the true size: within a factor of about 1 + c / s + c / N of the
+ * uniform 1 / N. Without concurrent changes c = 0 and the pick is exactly uniform */
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ConcurrentRandomizedQueue<Item> implements Iterable<Item> {
+    private static final int PAD = 16;   // ints between two shard sizes, so every size sits on its own 64-byte cache line
+
+    private final RandomizedQueue<Item>[] shards;
+    private final AtomicIntegerArray sizes;   // size of shard i at index i * PAD, written under the shard's lock
+    private final int mask;
+
+    public ConcurrentRandomizedQueue()
+    // Initializes a ConcurrentRandomizedQueue with one shard per core
+    {    this(Runtime.getRuntime().availableProcessors());    }
+
+    public ConcurrentRandomizedQueue(int shards) {
+    // Initializes a ConcurrentRandomizedQueue with at least the given number of shards, rounded up to a power of two
+        if (shards <= 0) throw new IllegalArgumentException();
+        int count = Integer.highestOneBit(shards);
+        if (count < shards) count *= 2;
+
+        this.shards = (RandomizedQueue<Item>[]) new RandomizedQueue[count];
+        for (int i = 0; i < count; i++) this.shards[i] = new RandomizedQueue<Item>();
+        sizes = new AtomicIntegerArray(count * PAD);
+        mask = count - 1;
+    }
+
+    public boolean isEmpty()
+    // Is the queue empty? Only a snapshot while other threads are using it
+    {    return size() == 0;    }
+
+    public int size() {
+    // Sum of the shard sizes at the moments they were read. Exact while no other thread changes the queue
+        int total = 0;
+        for (int i = 0; i <= mask; i++) total += sizes.get(i * PAD);
+        return total;
+    }
+
+    public void enqueue(Item item) {
+    // Adds item to the calling thread's shard
+        if (item == null) throw new NullPointerException();
+
+        int i = localShard();
+        RandomizedQueue<Item> shard = shards[i];
+        synchronized (shard) {
+            shard.enqueue(item);
+            sizes.set(i * PAD, shard.size());
+        }
+    }
+
+    private int localShard()
+    // Shard of the calling thread: its id, spread with the golden ratio so that consecutive ids land on different shards
+    {    return (int) (Thread.currentThread().getId() * 0x9E3779B97F4A7C15L >>> 32) & mask;    }
+
+    public Item dequeue() {
+    // Removes and returns a random item, every item with about the same probability
+        Item item = take(true);
+        if (item == null) throw new NoSuchElementException();
+        return item;
+    }
+
+    public Item sample() {
+    // Returns (but does not remove) a random item, every item with about the same probability
+        Item item = take(false);
+        if (item == null) throw new NoSuchElementException();
+        return item;
+    }
+
+    private Item take(boolean remove) {
+    // Picks a shard by size and takes an item from it, trying every other shard if it came up empty. Returns null if all of them are empty
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = pickShard(random);
+        for (int k = 0; k <= mask; k++) {
+            int i = (first + k) & mask;
+            RandomizedQueue<Item> shard = shards[i];
+            synchronized (shard) {
+                if (shard.isEmpty()) continue;
+                if (!remove) return shard.sample();
+
+                Item item = shard.dequeue();
+                sizes.set(i * PAD, shard.size());
+                return item;
+            }
+        }
+        return null;
+    }
+
+    private int pickShard(ThreadLocalRandom random) {
+    // Index of a shard, chosen with probability proportional to its size as read now. A random one if all of them read as empty
+        int total = size();
+        if (total <= 0) return random.nextInt(mask + 1);
+
+        int r = random.nextInt(total);
+        for (int i = 0; i < mask; i++) {
+            r -= sizes.get(i * PAD);
+            if (r < 0) return i;
+        }
+        return mask;   // also catches sizes that grew since they were summed
+    }
+
+    public Iterator<Item> iterator() {
+    /* Returns an iterator over a snapshot of the items, in random order. Each shard is copied under its lock, so the snapshot holds every item
+     * that was in the queue for the whole call, but not a single moment's state of all shards together */
+        RandomizedQueue<Item> snapshot = new RandomizedQueue<Item>();
+        for (RandomizedQueue<Item> shard : shards) {
+            synchronized (shard) {
+                for (Item item : shard) snapshot.enqueue(item);
+            }
+        }
+        return snapshot.iterator();
+    }
+
+    public static void main(String[] args) throws Exception {
+    /* Bias test and benchmark. Four threads fill the queue with 1, 2, 3 and 4 times as many items, so the shards are uneven, and the counts of
+     * sample() and of the first item dequeued are compared with the uniform distribution by a chi-square statistic. Then producers and consumers
+     * stress the queue and every item has to come out exactly once. Last, 1, 2, 4, ... threads up to twice the core count each enqueue and dequeue
+     * in a loop, next to a RandomizedQueue behind one lock. Operation count can be passed as an argument */
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int cores = Runtime.getRuntime().availableProcessors();
+        ExecutorService fillers = Executors.newFixedThreadPool(4);
+
+        ConcurrentRandomizedQueue<Integer> queue = new ConcurrentRandomizedQueue<Integer>(4);
+        fill(queue, fillers);
+        long[] counts = new long[queue.size()];
+        for (int k = 0; k < 100 * counts.length * 100; k++) counts[queue.sample()]++;
+        checkUniform("sample", counts);
+
+        counts = new long[counts.length];
+        for (int k = 0; k < 100 * counts.length; k++) {
+            ConcurrentRandomizedQueue<Integer> fresh = new ConcurrentRandomizedQueue<Integer>(4);
+            fill(fresh, fillers);
+            counts[fresh.dequeue()]++;
+        }
+        checkUniform("first dequeue", counts);
+        fillers.shutdown();
+
+        stress(count, Math.max(2, cores));
+
+        for (int threads = 1; threads <= 2 * cores; threads *= 2) {
+            System.out.printf("%2d threads: sharded %.1f M ops/sec, locked RandomizedQueue %.1f M ops/sec%n", threads,
+                              throughput(count, threads, true), throughput(count, threads, false));
+        }
+    }
+
+    private static void fill(final ConcurrentRandomizedQueue<Integer> queue, ExecutorService fillers) throws Exception {
+    // Has thread t of the pool enqueue 10 * (t + 1) items, 100 in all, numbered 0 to 99
+        List<Future<?>> done = new ArrayList<Future<?>>();
+        int next = 0;
+        for (int t = 0; t < 4; t++) {
+            final int from = next, to = next + 10 * (t + 1);
+            done.add(fillers.submit(() -> { for (int i = from; i < to; i++) queue.enqueue(i); }));
+            next = to;
+        }
+        for (Future<?> future : done) future.get();
+    }
+
+    private static void checkUniform(String name, long[] counts) {
+    // Prints the chi-square statistic of counts against the uniform distribution, and fails if it is far beyond what chance explains
+        double draws = 0;
+        for (long count : counts) draws += count;
+        double expected = draws / counts.length, chiSquare = 0;
+        for (long count : counts) chiSquare += (count - expected) * (count - expected) / expected;
+
+        int df = counts.length - 1;
+        System.out.printf("%s: chi-square %.2f with %d degrees of freedom%n", name, chiSquare, df);
+        if (chiSquare > df + 6 * Math.sqrt(2 * df)) throw new AssertionError(name + ": not uniform");
+    }
+
+    private static void stress(final int count, int threads) throws InterruptedException {
+    // Half the threads enqueue count items between them while the other half dequeue, and every item has to be dequeued exactly once
+        final ConcurrentRandomizedQueue<Integer> queue = new ConcurrentRandomizedQueue<Integer>();
+        final AtomicIntegerArray taken = new AtomicIntegerArray(count);
+        final AtomicLong done = new AtomicLong();
+        final int producers = Math.max(1, threads / 2);
+        List<Thread> workers = new ArrayList<Thread>();
+
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers.add(new Thread(() -> {
+                if (id < producers) {
+                    for (int i = id; i < count; i += producers) queue.enqueue(i);
+                    return;
+                }
+                while (done.get() < count) {
+                    Integer item;
+                    try { item = queue.dequeue(); } catch (NoSuchElementException e) { continue; }
+                    if (taken.getAndIncrement(item) != 0) throw new AssertionError("item " + item + " dequeued twice");
+                    done.incrementAndGet();
+                }
+            }));
+        }
+        for (Thread worker : workers) worker.start();
+        for (Thread worker : workers) worker.join();
+        if (done.get() != count || !queue.isEmpty()) throw new AssertionError("lost items");
+        System.out.printf("stress: %d items through %d producers and %d consumers%n", count, producers, threads - producers);
+    }
+
+    private static double throughput(final int count, int threads, final boolean sharded) throws InterruptedException {
+    // Every thread does count / threads rounds of enqueue then dequeue on a queue that starts with 1000 items. Returns millions of operations per second
+        final ConcurrentRandomizedQueue<Integer> queue = new ConcurrentRandomizedQueue<Integer>();
+        final RandomizedQueue<Integer> locked = new RandomizedQueue<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            queue.enqueue(i);
+            locked.enqueue(i);
+        }
+
+        final int rounds = count / threads;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < rounds; i++) {
+                    if (sharded) queue.enqueue(queue.dequeue());
+                    else synchronized (locked) { locked.enqueue(locked.dequeue()); }
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread worker : workers) worker.start();
+        for (Thread worker : workers) worker.join();
+        return 2.0 * rounds * threads / (System.nanoTime() - start) * 1e3;
+    }
+}
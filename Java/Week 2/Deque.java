@@ -1,125 +1,223 @@
-/* Models a Deque, a data structure similar to a Stack or Queue, but that allows for item insertion and removal from two different ends. Represented as a linked 
- * list for efficient implementation of insert and remove from two ends. A front and a back end are arbitrarily distinguished for the Deque class */
+/* Models a Deque, a data structure similar to a Stack or Queue, but that allows for item insertion and removal from two different ends. Represented as a ring
+ * buffer: items sit in a circular array between head and head + n (wrapping around the end), so both ends can grow and shrink in amortized constant time
+ * without a Node per item. The capacity is always a power of two, so wrapping an index is a single mask. The array doubles when full and halves when it is
+ * a quarter full. A front and a back end are arbitrarily distinguished for the Deque class */
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
-public class Deque<Item> implements Iterable<Item> {    
-    private Node first;
-    private Node last;
+public class Deque<Item> implements Iterable<Item> {
+    private static final int MIN_CAPACITY = 8;
+    private static final int MAX_CAPACITY = 1 << 30;   // the largest power of two an int can hold
+
+    private Item[] a;
+    private int head;   // index of the first item
     private int n;
-    
+
     public Deque() {
-    // Initializes a Deque with a first node, last node, and size
-        first = null;
-        last = null;
+    // Initializes an empty Deque with a small ring buffer
+        a = (Item[]) new Object[MIN_CAPACITY];
+        head = 0;
         n = 0;
     }
-    
-    private class Node {
-    /* Every item in the Deque is represented by a Node, each of which has a pointer to the Node immediately preceding and 
-     * succeeding it. The Node contains a reference to the inserted item in its value "item" */        
-        private Item item = null;
-        private Node next = null;
-        private Node prev = null;
-    }
-        
+
     public boolean isEmpty()
     // Is the Deque empty?
-    {    return (first == null || last == null);    }
-    
+    {    return n == 0;    }
+
     public int size()
     // Returns number of items in the Deque
     {    return n;    }
-    
+
     public void addFirst(Item item) {
-    // Adds a new element to the front of the Deque and adjusts all references accordingly
+    // Adds a new element to the front of the Deque, growing the buffer first if it is full
         if (item == null) throw new NullPointerException();
-        
-        Node oldfirst = first;
-        first = new Node();
-        first.item = item;
-        
-        if (isEmpty()) last = first;
-        else { 
-            oldfirst.prev = first;
-            first.next = oldfirst;
-        }
-        
+
+        if (n == a.length) resize(2 * a.length);
+        head = (head - 1) & (a.length - 1);
+        a[head] = item;
         n++;
     }
-    
+
     public void addLast(Item item) {
-    // Adds a new element to the end of the Deque and adjusts all references accordingly
+    // Adds a new element to the end of the Deque, growing the buffer first if it is full
         if (item == null) throw new NullPointerException();
-        
-        Node oldlast = last;
-        last = new Node();
-        last.item = item;
-        
-        if (isEmpty()) first = last;
-        else {
-            oldlast.next = last;
-            last.prev = oldlast;
-        }
-        
+
+        if (n == a.length) resize(2 * a.length);
+        a[(head + n) & (a.length - 1)] = item;
         n++;
     }
-    
+
     public Item removeFirst() {
-    // Pops the element from the front of the Deque and adjusts all references accordingly
+    // Pops the element from the front of the Deque, shrinking the buffer if it is down to a quarter full
         if (isEmpty()) throw new NoSuchElementException();
-        
-        Item item = first.item;
-        first = first.next;
-        if (isEmpty()) last = null;
-        else first.prev = null;
-        
+
+        Item item = a[head];
+        a[head] = null;   // to avoid loitering
+        head = (head + 1) & (a.length - 1);
         n--;
+        shrink();
         return item;
-        
     }
-    
+
     public Item removeLast() {
-    // Pops the element from the end of the Deque and adjusts all references accordingly
+    // Pops the element from the end of the Deque, shrinking the buffer if it is down to a quarter full
         if (isEmpty()) throw new NoSuchElementException();
-        
-        Item item = last.item;
-        last = last.prev;
-        if (isEmpty()) first = null;
-        else last.next = null;
-        
+
+        int last = (head + n - 1) & (a.length - 1);
+        Item item = a[last];
+        a[last] = null;
         n--;
+        shrink();
         return item;
-    }	
-    
+    }
+
+    public void addAllLast(Item[] items) {
+    /* Adds all items to the end of the Deque, in order. Grows the buffer at most once and copies with System.arraycopy. Adds nothing if any item is
+     * null, or if the buffer would have to grow past 2^30 items, in which case it throws IllegalStateException */
+        for (Item item : items) if (item == null) throw new NullPointerException();
+
+        long capacity = a.length;   // a long, so doubling cannot overflow
+        while (capacity - n < items.length) capacity *= 2;
+        if (capacity > MAX_CAPACITY) throw new IllegalStateException("Deque cannot hold " + ((long) n + items.length) + " items");
+        if (capacity != a.length) resize((int) capacity);
+
+        int tail = (head + n) & (a.length - 1);
+        int firstPart = Math.min(items.length, a.length - tail);   // up to the end of the array, the rest wraps around to 0
+        System.arraycopy(items, 0, a, tail, firstPart);
+        System.arraycopy(items, firstPart, a, 0, items.length - firstPart);
+        n += items.length;
+    }
+
+    public void addAllLast(Collection<? extends Item> items)
+    // Adds all items to the end of the Deque, in the collection's iteration order
+    {    addAllLast((Item[]) items.toArray());    }
+
+    public int drainTo(Item[] dst, int max) {
+    // Removes up to max items from the front of the Deque into dst, starting at dst[0]. Returns the number of items moved
+        if (max < 0) throw new IllegalArgumentException();
+        int k = Math.min(max, n);
+        if (k > dst.length) throw new IllegalArgumentException("dst holds " + dst.length + " items, " + k + " to drain");
+
+        int firstPart = Math.min(k, a.length - head);
+        System.arraycopy(a, head, dst, 0, firstPart);
+        System.arraycopy(a, 0, dst, firstPart, k - firstPart);
+        Arrays.fill(a, head, head + firstPart, null);   // to avoid loitering
+        Arrays.fill(a, 0, k - firstPart, null);
+        head = (head + k) & (a.length - 1);
+        n -= k;
+
+        int capacity = a.length;
+        while (capacity > MIN_CAPACITY && n <= capacity / 4) capacity /= 2;   // where shrink() would have ended up after k single removes
+        if (capacity != a.length) resize(capacity);
+        return k;
+    }
+
+    public List<Item> removeFirst(int k) {
+    // Removes the first k items and returns them front to back
+        if (k < 0) throw new IllegalArgumentException();
+        if (k > n) throw new NoSuchElementException();
+
+        Item[] items = (Item[]) new Object[k];
+        drainTo(items, k);
+        return Arrays.asList(items);
+    }
+
+    private void shrink() {
+    // Halves the buffer once it is a quarter full (not at half, so alternating adds and removes at the boundary cannot thrash)
+        if (a.length > MIN_CAPACITY && n == a.length / 4) resize(a.length / 2);
+    }
+
+    private void resize(int capacity) {
+    // Moves the items to a new buffer of the given capacity, unwrapped so that the first item is at index 0
+        Item[] copy = (Item[]) new Object[capacity];
+        int firstPart = Math.min(n, a.length - head);   // items from head up to the end of the array, the rest wrapped around to 0
+        System.arraycopy(a, head, copy, 0, firstPart);
+        System.arraycopy(a, 0, copy, firstPart, n - firstPart);
+        a = copy;
+        head = 0;
+    }
+
     public Iterator<Item> iterator()
-    // Returns a new iterator for all items in Deque
-    {    return new ListIterator();    }
-    
-    private class ListIterator implements Iterator<Item> {
-    // Representation of the Deque iterator that implements the Iterator interface    
-        private Node current = first;
-        
-        public boolean hasNext() 
-        // Is there another Node to iterate over in the iterator?
-        {	return current != null;	}
-        
-        public void remove() 
+    // Returns a new iterator for all items in Deque, front to back
+    {    return new ArrayIterator();    }
+
+    private class ArrayIterator implements Iterator<Item> {
+    // Representation of the Deque iterator that implements the Iterator interface. Walks the buffer from head, wrapping around at the end
+        private int i = 0;
+
+        public boolean hasNext()
+        // Are there items left to iterate over?
+        {	return i < n;	}
+
+        public void remove()
         // Remove is not supported
         {	throw new UnsupportedOperationException();	}
-        
+
         public Item next() {
         // Returns the next value in the Iterator
             if (!hasNext()) throw new NoSuchElementException();
-            
-            Item item = current.item;
-            current = current.next;
-            return item;
+
+            return a[(head + i++) & (a.length - 1)];
         }
     }
-    
+
     public static void main(String[] args) {
-        
+    /* Benchmark against java.util.LinkedList, a Node-per-item linked deque like the one Deque used to be: a queue-like mix (add at the back,
+     * remove at the front), a stack-like mix (add and remove at the front) and a full iteration. Item count can be passed as an argument */
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        Integer[] items = new Integer[count];
+        for (int i = 0; i < count; i++) items[i] = i;
+
+        for (int round = 0; round < 3; round++) {   // the first rounds are warm-up for the JIT
+            Deque<Integer> deque = new Deque<Integer>();
+            LinkedList<Integer> linked = new LinkedList<Integer>();
+
+            long start = System.nanoTime();
+            for (Integer item : items) deque.addLast(item);
+            long sum = 0;
+            for (Integer item : deque) sum += item;
+            long iterated = System.nanoTime();
+            while (!deque.isEmpty()) deque.removeFirst();
+            for (Integer item : items) deque.addFirst(item);
+            while (!deque.isEmpty()) deque.removeFirst();
+            long dequeEnd = System.nanoTime();
+
+            for (Integer item : items) linked.addLast(item);
+            long linkedSum = 0;
+            for (Integer item : linked) linkedSum += item;
+            long linkedIterated = System.nanoTime();
+            while (!linked.isEmpty()) linked.removeFirst();
+            for (Integer item : items) linked.addFirst(item);
+            while (!linked.isEmpty()) linked.removeFirst();
+            long linkedEnd = System.nanoTime();
+
+            if (sum != linkedSum) throw new AssertionError();
+            System.out.printf("round %d: Deque %.1f M ops/sec (add + iterate %.0f ms), LinkedList %.1f M ops/sec (add + iterate %.0f ms)%n", round,
+                              4.0 * count / (dequeEnd - start) * 1e3, (iterated - start) / 1e6,
+                              4.0 * count / (linkedEnd - dequeEnd) * 1e3, (linkedIterated - dequeEnd) / 1e6);
+        }
+
+        // Bulk against single-item calls: fill the Deque from an array and drain it back out, in batches of 1000
+        Integer[] batch = new Integer[1000];
+        for (int round = 0; round < 5; round++) {
+            Deque<Integer> deque = new Deque<Integer>();
+
+            long start = System.nanoTime();
+            for (Integer item : items) deque.addLast(item);
+            for (int k = 0; k < count; k++) batch[k % batch.length] = deque.removeFirst();
+            long single = System.nanoTime();
+            deque.addAllLast(items);
+            long drained = 0;
+            while (!deque.isEmpty()) drained += deque.drainTo(batch, batch.length);
+            long bulk = System.nanoTime();
+
+            if (drained != count) throw new AssertionError();
+            System.out.printf("round %d: addLast + removeFirst %.0f ms, addAllLast + drainTo %.0f ms%n", round, (single - start) / 1e6, (bulk - single) / 1e6);
+        }
     }
 }
@@ -0,0 +1,122 @@
+// RandomizedQueue specialized for int values: the same resizing array, but an int[], so enqueue and dequeue never box and never allocate (apart from resizes)
+
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntConsumer;
+import java.util.random.RandomGenerator;
+
+public class IntRandomizedQueue {
+    private int[] s;
+    private int n;
+    private int modCount;   // bumped by every change, so iterators can tell the items moved under them
+    private final RandomGenerator random;   // null for the calling thread's ThreadLocalRandom
+
+    public IntRandomizedQueue()
+    // Initializes an IntRandomizedQueue that draws from the calling thread's ThreadLocalRandom
+    {    this(null);    }
+
+    public IntRandomizedQueue(RandomGenerator random) {
+    // Initializes an IntRandomizedQueue with an initial array size of 2 that draws from random, like RandomizedQueue
+        s = new int[2];
+        n = 0;
+        this.random = random;
+    }
+
+    private int uniform(int bound)
+    // Returns a random integer between [0, bound)
+    {    return (random != null ? random : ThreadLocalRandom.current()).nextInt(bound);    }
+
+    public boolean isEmpty()
+    // Is the IntRandomizedQueue empty?
+    {    return n == 0;    }
+
+    public int size()
+    // Returns the number of items in the IntRandomizedQueue
+    {    return n;    }
+
+    public void enqueue(int item) {
+    // Adds a new item. If the array is at maximum capacity, double its capacity
+        if (n == s.length) resize(2 * n);
+        s[n++] = item;
+        modCount++;
+    }
+
+    private void resize(int capacity) {
+    // Resizes array
+        int[] copy = new int[capacity];
+        System.arraycopy(s, 0, copy, 0, n);
+        s = copy;
+    }
+
+    public int dequeue() {
+    // Removes an item at random. The last item takes its place, and the array is halved once it is a quarter full
+        if (n == 0) throw new NoSuchElementException();
+        int i = uniform(n);
+
+        int item = s[i];
+        s[i] = s[--n];
+        modCount++;
+
+        if (n > 0 && n == s.length / 4) resize(s.length / 2);
+
+        return item;
+    }
+
+    public int sample() {
+    // Returns (but does not remove) a random item
+        if (n == 0) throw new NoSuchElementException();
+
+        return s[uniform(n)];
+    }
+
+    public void forEach(IntConsumer action) {
+    // Passes every item to action, in random order
+        PrimitiveIterator.OfInt iterator = iterator();
+        while (iterator.hasNext()) action.accept(iterator.nextInt());
+    }
+
+    public PrimitiveIterator.OfInt iterator()
+    // Returns a new iterator over all items, in an order that is random and independent of other iterators. Starts in O(1)
+    {    return new RandomizedQueueIterator();    }
+
+    private class RandomizedQueueIterator implements PrimitiveIterator.OfInt {
+    // Draws indices into the queue's own array from a LazyShuffle, like RandomizedQueue's iterator. Fails fast if the queue changes
+        private final LazyShuffle order = new LazyShuffle(n, random);
+        private final int expectedModCount = modCount;
+
+        public boolean hasNext()
+        {    return order.hasNext();    }
+
+        public int nextInt() {
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+            if (!hasNext()) throw new NoSuchElementException();
+
+            return s[order.next()];
+        }
+    }
+
+    public static void main(String[] args) {
+    /* Benchmark against RandomizedQueue<Integer>: enqueues every value, then dequeues them all. Item count can be passed as an argument */
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+
+        for (int round = 0; round < 3; round++) {   // the first rounds are warm-up for the JIT
+            long start = System.nanoTime();
+            IntRandomizedQueue primitive = new IntRandomizedQueue();
+            long sum = 0;
+            for (int i = 0; i < count; i++) primitive.enqueue(i);
+            while (!primitive.isEmpty()) sum += primitive.dequeue();
+            long middle = System.nanoTime();
+
+            RandomizedQueue<Integer> boxed = new RandomizedQueue<Integer>();
+            long boxedSum = 0;
+            for (int i = 0; i < count; i++) boxed.enqueue(i);
+            while (!boxed.isEmpty()) boxedSum += boxed.dequeue();
+            long end = System.nanoTime();
+
+            if (sum != boxedSum) throw new AssertionError();
+            System.out.printf("round %d: IntRandomizedQueue %.0f ms, RandomizedQueue<Integer> %.0f ms%n", round, (middle - start) / 1e6, (end - middle) / 1e6);
+        }
+    }
+}
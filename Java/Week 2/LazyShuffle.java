@@ -0,0 +1,75 @@
+/* A random permutation of [0, n), drawn one index at a time. This is a Fisher-Yates shuffle run incrementally: step k picks a random slot among the n - k
+ * not yet drawn and swaps the last undrawn slot into its place. The swaps are kept in a small open-addressing hash map instead of an array of n slots,
+ * so starting the shuffle is O(1) and drawing k indices takes O(k) time and memory. Every permutation is equally likely, as with a full shuffle */
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
+
+final class LazyShuffle {
+    private final RandomGenerator random;   // null for the calling thread's ThreadLocalRandom
+    private int remaining;   // slots [0, remaining) have not been drawn yet
+    private int[] keys;      // slot + 1 of every displaced slot, 0 marks an empty entry
+    private int[] values;    // what that slot holds now
+    private int size;
+
+    LazyShuffle(int n, RandomGenerator random) {
+    // Starts a shuffle of [0, n) that draws from random, or from whichever thread calls next() if random is null
+        if (n < 0) throw new IllegalArgumentException();
+        this.random = random;
+        remaining = n;
+        keys = new int[8];
+        values = new int[8];
+    }
+
+    boolean hasNext()
+    // Are there indices left to draw?
+    {    return remaining > 0;    }
+
+    int next() {
+    // Draws the next index. The slot drawn is filled with the last undrawn slot, which then falls out of range and is never looked up again
+        int i = (random != null ? random : ThreadLocalRandom.current()).nextInt(remaining);
+        int last = --remaining;
+        int drawn = get(i);
+        if (i != last) put(i, get(last));
+        return drawn;
+    }
+
+    private int get(int slot) {
+    // What slot holds: its own index unless something was swapped into it
+        for (int h = hash(slot); keys[h] != 0; h = (h + 1) & (keys.length - 1))
+            if (keys[h] == slot + 1) return values[h];
+        return slot;
+    }
+
+    private void put(int slot, int value) {
+    // Records that slot now holds value, doubling the table once it is half full
+        int h = hash(slot);
+        while (keys[h] != 0 && keys[h] != slot + 1) h = (h + 1) & (keys.length - 1);
+        if (keys[h] == 0) {
+            if (2 * (size + 1) > keys.length) {
+                grow();
+                put(slot, value);
+                return;
+            }
+            keys[h] = slot + 1;
+            size++;
+        }
+        values[h] = value;
+    }
+
+    private void grow() {
+    // Rehashes every entry into tables twice as large
+        int[] oldKeys = keys, oldValues = values;
+        keys = new int[2 * oldKeys.length];
+        values = new int[2 * oldValues.length];
+        size = 0;
+        for (int h = 0; h < oldKeys.length; h++)
+            if (oldKeys[h] != 0) put(oldKeys[h] - 1, oldValues[h]);
+    }
+
+    private int hash(int slot) {
+    // Spreads consecutive slots over the table (multiplicative hashing with the golden ratio)
+        int h = slot * 0x9E3779B9;
+        return (h ^ h >>> 16) & (keys.length - 1);
+    }
+}
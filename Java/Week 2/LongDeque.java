@@ -0,0 +1,130 @@
+/* Deque specialized for long values: the same ring buffer as Deque, but over a long[], so adding and removing never boxes and never allocates (apart from
+ * the occasional resize). Iteration goes front to back through a primitive iterator or forEach(LongConsumer). Being a primitive container it does not
+ * implement Iterable<Long>, which would make forEach(x -> ...) ambiguous */
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.LongConsumer;
+
+public class LongDeque {
+    private static final int MIN_CAPACITY = 8;
+
+    private long[] a;
+    private int head;   // index of the first item
+    private int n;
+
+    public LongDeque() {
+    // Initializes an empty LongDeque with a small ring buffer
+        a = new long[MIN_CAPACITY];
+        head = 0;
+        n = 0;
+    }
+
+    public boolean isEmpty()
+    // Is the LongDeque empty?
+    {    return n == 0;    }
+
+    public int size()
+    // Returns number of items in the LongDeque
+    {    return n;    }
+
+    public void addFirst(long item) {
+    // Adds a new element to the front of the LongDeque, growing the buffer first if it is full
+        if (n == a.length) resize(2 * a.length);
+        head = (head - 1) & (a.length - 1);
+        a[head] = item;
+        n++;
+    }
+
+    public void addLast(long item) {
+    // Adds a new element to the end of the LongDeque, growing the buffer first if it is full
+        if (n == a.length) resize(2 * a.length);
+        a[(head + n) & (a.length - 1)] = item;
+        n++;
+    }
+
+    public long removeFirst() {
+    // Pops the element from the front of the LongDeque, shrinking the buffer if it is down to a quarter full
+        if (isEmpty()) throw new NoSuchElementException();
+
+        long item = a[head];
+        head = (head + 1) & (a.length - 1);
+        n--;
+        shrink();
+        return item;
+    }
+
+    public long removeLast() {
+    // Pops the element from the end of the LongDeque, shrinking the buffer if it is down to a quarter full
+        if (isEmpty()) throw new NoSuchElementException();
+
+        long item = a[(head + n - 1) & (a.length - 1)];
+        n--;
+        shrink();
+        return item;
+    }
+
+    private void shrink() {
+    // Halves the buffer once it is a quarter full
+        if (a.length > MIN_CAPACITY && n == a.length / 4) resize(a.length / 2);
+    }
+
+    private void resize(int capacity) {
+    // Moves the items to a new buffer of the given capacity, unwrapped so that the first item is at index 0
+        long[] copy = new long[capacity];
+        int firstPart = Math.min(n, a.length - head);
+        System.arraycopy(a, head, copy, 0, firstPart);
+        System.arraycopy(a, 0, copy, firstPart, n - firstPart);
+        a = copy;
+        head = 0;
+    }
+
+    public void forEach(LongConsumer action) {
+    // Passes every item to action, front to back
+        for (int i = 0; i < n; i++) action.accept(a[(head + i) & (a.length - 1)]);
+    }
+
+    public PrimitiveIterator.OfLong iterator()
+    // Returns a new iterator for all items in LongDeque, front to back
+    {    return new ArrayIterator();    }
+
+    private class ArrayIterator implements PrimitiveIterator.OfLong {
+    // Walks the buffer from head, wrapping around at the end
+        private int i = 0;
+
+        public boolean hasNext()
+        {	return i < n;	}
+
+        public long nextLong() {
+            if (!hasNext()) throw new NoSuchElementException();
+
+            return a[(head + i++) & (a.length - 1)];
+        }
+    }
+
+    public static void main(String[] args) {
+    /* Benchmark against Deque<Long>: adds every value at the back, sums them with forEach, then removes them from the front. Item count
+     * can be passed as an argument */
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+
+        for (int round = 0; round < 3; round++) {   // the first rounds are warm-up for the JIT
+            long start = System.nanoTime();
+            LongDeque primitive = new LongDeque();
+            for (int i = 0; i < count; i++) primitive.addLast((long) i);
+            long[] sum = new long[1];
+            primitive.forEach(x -> sum[0] += x);
+            while (!primitive.isEmpty()) sum[0] -= primitive.removeFirst();
+            long middle = System.nanoTime();
+
+            Deque<Long> boxed = new Deque<Long>();
+            for (int i = 0; i < count; i++) boxed.addLast((long) i);
+            long boxedSum = 0;
+            for (long x : boxed) boxedSum += x;
+            while (!boxed.isEmpty()) boxedSum -= boxed.removeFirst();
+            long end = System.nanoTime();
+
+            if (sum[0] != 0 || boxedSum != 0) throw new AssertionError();
+            System.out.printf("round %d: LongDeque %.0f ms, Deque<Long> %.0f ms%n", round, (middle - start) / 1e6, (end - middle) / 1e6);
+        }
+    }
+}
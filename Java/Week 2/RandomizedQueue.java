@@ -1,19 +1,42 @@
-// Models a Randomized queue, a data structure similar to a Stack or Queue, but in which values are removed uniformly at random. Represented as an array
+/* Models a Randomized queue, a data structure similar to a Stack or Queue, but in which values are removed uniformly at random. Represented as an array.
+ * Random numbers come from the RandomGenerator passed to the constructor, which makes a queue reproducible when it is seeded (a SplittableRandom or any
+ * RandomGeneratorFactory algorithm). Without one, every call draws from the calling thread's ThreadLocalRandom, so queues used on different threads
+ * never contend on a shared seed the way they did on StdRandom */
 
-import edu.princeton.cs.algs4.StdRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
 
 public class RandomizedQueue<Item> implements Iterable<Item> {	
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;   // some VMs cannot allocate arrays any closer to Integer.MAX_VALUE
+    
     private Item[] s;
     private int n;
+    private int modCount;   // bumped by every change, so iterators can tell the items moved under them
+    private final RandomGenerator random;   // null for the calling thread's ThreadLocalRandom
+    
+    public RandomizedQueue()
+    // Initializes a RandomizedQueue that draws from the calling thread's ThreadLocalRandom
+    {	this(null);	}
     
-    public RandomizedQueue() {
-    // Initializes a RandomizedQueue with an initial array size of 2. n keeps track of # of items in the RandomizedQueue
+    public RandomizedQueue(RandomGenerator random) {
+    // Initializes a RandomizedQueue with an initial array size of 2 that draws from random. n keeps track of # of items in the RandomizedQueue
         s = (Item[]) new Object[2];
         n = 0;
+        this.random = random;
     }
     
+    private int uniform(int bound)
+    // Returns a random integer between [0, bound)
+    {	return (random != null ? random : ThreadLocalRandom.current()).nextInt(bound);	}
+    
     public boolean isEmpty()
     // Is the RandomizedQueue empty?
     {	return n == 0;	}
@@ -28,74 +51,108 @@ public class RandomizedQueue<Item> implements Iterable<Item> {
         
         if (n == s.length) resize(2 * n);
         s[n++] = item;
+        modCount++;
     }
     
+    public void enqueueAll(Item[] items) {
+    /* Adds all items, growing the array at most once, to at least twice its size. Adds nothing if any item is null, or if the array would have to
+     * grow past Integer.MAX_VALUE - 8 items, in which case it throws IllegalStateException */
+        for (Item item : items) if (item == null) throw new NullPointerException();
+        
+        long needed = (long) n + items.length;
+        if (needed > MAX_CAPACITY) throw new IllegalStateException("RandomizedQueue cannot hold " + needed + " items");
+        if (needed > s.length) resize((int) Math.min(Math.max(needed, 2L * s.length), MAX_CAPACITY));
+        System.arraycopy(items, 0, s, n, items.length);
+        n += items.length;
+        modCount++;
+    }
+    
+    public void enqueueAll(Collection<? extends Item> items)
+    // Adds all items in the collection
+    {	enqueueAll((Item[]) items.toArray());	}
+    
     private void resize(int capacity) {
     // Resizes array. Generic arrays cannot be directly created in Java so an Object[] has to be made and cast to Item[] :(
         Item[] copy = (Item[]) new Object[capacity];
-        for (int i = 0; i < n; i++) copy[i] = s[i];
+        System.arraycopy(s, 0, copy, 0, n);
         s = copy;
     }
     
     public Item dequeue() {
     // Removes an item at random from the Randomized queue. If the array at one quarter capacity, halve its capacity (avoids thrashing)
         if (n == 0)	 throw new NoSuchElementException();
-        int i = StdRandom.uniform(n);
-        // Returns a random integer between [0, n)
+        int i = uniform(n);
     	
     	Item item = s[i];
     	s[i] = s[--n];
     	s[n] = null;
+    	modCount++;
     	
     	if (n > 0 && n == s.length/4) resize(s.length/2);
     	
     	return item;
     }
     
+    public List<Item> dequeueMany(int k) {
+    /* Removes k items at random and returns them in random order. A partial Fisher-Yates shuffle moves the chosen items to the end of the array, which
+     * is then cut off with one copy, and the array shrinks at most once, to where k calls to dequeue() would have left it */
+        if (k < 0) throw new IllegalArgumentException();
+        if (k > n) throw new NoSuchElementException();
+        
+        for (int j = n - 1; j >= n - k; j--) {
+            int i = uniform(j + 1);
+            Item swap = s[i];
+            s[i] = s[j];
+            s[j] = swap;
+        }
+        Item[] items = (Item[]) new Object[k];
+        System.arraycopy(s, n - k, items, 0, k);
+        Arrays.fill(s, n - k, n, null);
+        n -= k;
+        modCount++;
+        
+        int capacity = s.length;
+        while (capacity > 2 && n <= capacity / 4) capacity /= 2;
+        if (capacity != s.length) resize(capacity);
+        
+        return Arrays.asList(items);
+    }
+    
     public Item sample() {
     // Returns (but does not remove) any random item from the RandomizedQueue
     	if (n == 0) throw new NoSuchElementException();
     	
-    	int i = StdRandom.uniform(n);
+    	int i = uniform(n);
     	return s[i];
     }
     
     public Iterator<Item> iterator()
-    // Returns a new iterator for all items in RandomizedQueue
+    // Returns a new iterator for all items in RandomizedQueue, in an order that is random and independent of other iterators. Starts in O(1)
     {	return new RandomizedQueueIterator();    }
     
     private class RandomizedQueueIterator implements Iterator<Item> {
-    // Representation of the RandomizedQueue iterator. Implemented as an array to support random iteration
-    	private Item[] iterArray;
-    	private int n;
-    	
-    	public RandomizedQueueIterator() {
-    		
-    		n = RandomizedQueue.this.n;
-    		iterArray = (Item[]) new Object[s.length];
-    		for (int i = 0; i < n; i++) iterArray[i] = s[i];
-    	}
+    /* Representation of the RandomizedQueue iterator. Draws indices into the queue's own array from a LazyShuffle rather than copying the array, so
+     * taking the first k items costs O(k) time and memory however large the queue is. Changing the queue while iterating throws
+     * ConcurrentModificationException */
+    	private final LazyShuffle order = new LazyShuffle(n, random);
+    	private final int expectedModCount = modCount;
     	
     	public boolean hasNext()
-    	{	return n > 0;	}
+    	{	return order.hasNext();	}
     	
     	public void remove() {
     		throw new UnsupportedOperationException();
     	}
     	
     	public Item next() {
+    		if (modCount != expectedModCount) throw new ConcurrentModificationException();
     		if (!hasNext()) throw new NoSuchElementException();
-    		int i = StdRandom.uniform(n);
     		
-    		Item item = iterArray[i];
-    		iterArray[i] = iterArray[--n];
-    		iterArray[n] = null;
-    		
-    		return item;
+    		return s[order.next()];
     	}
     }
         
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException {
         RandomizedQueue<Integer> Joe = new RandomizedQueue<Integer>();
         for (int i = 0; i < 14; i++)
             Joe.enqueue(i);
@@ -111,6 +168,77 @@ public class RandomizedQueue<Item> implements Iterable<Item> {
     	}
     	
     	System.out.println(Joe.n);
+    	
+    	// Bulk against single-item calls: enqueue count items and dequeue them all again
+    	int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+    	Integer[] items = new Integer[count];
+    	for (int i = 0; i < count; i++) items[i] = i;
+    	
+    	for (int round = 0; round < 3; round++) {   // the first rounds are warm-up for the JIT
+    	    RandomizedQueue<Integer> queue = new RandomizedQueue<Integer>();
+    	    
+    	    long start = System.nanoTime();
+    	    for (Integer item : items) queue.enqueue(item);
+    	    long sum = 0;
+    	    while (!queue.isEmpty()) sum += queue.dequeue();
+    	    long single = System.nanoTime();
+    	    queue.enqueueAll(items);
+    	    long bulkSum = 0;
+    	    for (Integer item : queue.dequeueMany(count)) bulkSum += item;
+    	    long bulk = System.nanoTime();
+    	    
+    	    if (sum != bulkSum || !queue.isEmpty()) throw new AssertionError();
+    	    System.out.printf("round %d: enqueue + dequeue %.0f ms, enqueueAll + dequeueMany %.0f ms%n", round, (single - start) / 1e6, (bulk - single) / 1e6);
+    	}
+    	
+    	// Taking the first 10 items of a fresh iterator, against the full copy the iterator used to make up front
+    	RandomizedQueue<Integer> queue = new RandomizedQueue<Integer>();
+    	queue.enqueueAll(items);
+    	for (int round = 0; round < 5; round++) {
+    	    long start = System.nanoTime();
+    	    long sum = 0;
+    	    for (int k = 0; k < 1000; k++) {
+    	        Iterator<Integer> iterator = queue.iterator();
+    	        for (int i = 0; i < 10; i++) sum += iterator.next();
+    	    }
+    	    long lazy = System.nanoTime();
+    	    Object[] backing = ((RandomizedQueue) queue).s;   // raw, so the generic array is not cast to Integer[]
+    	    Object[] copy = new Object[backing.length];
+    	    System.arraycopy(backing, 0, copy, 0, queue.n);
+    	    long copied = System.nanoTime();
+    	    
+    	    if (sum < 0) throw new AssertionError();
+    	    System.out.printf("round %d: first 10 items %.2f us, copying %d items %.2f ms%n", round, (lazy - start) / 1e3 / 1000, queue.n, (copied - lazy) / 1e6);
+    	}
+    	
+    	/* Dequeue throughput with 1, 2, 4, ... threads up to twice the core count, every thread emptying its own queue: once with the default
+    	 * thread-local generator, once with a single java.util.Random shared by all queues, which is what StdRandom amounts to */
+    	int cores = Runtime.getRuntime().availableProcessors();
+    	Random shared = new Random(42);
+    	for (int threads = 1; threads <= 2 * cores; threads *= 2) {
+    	    System.out.printf("%2d threads: thread-local %.1f M dequeues/sec, shared Random %.1f M dequeues/sec%n", threads,
+    	                      dequeueRate(items, threads, null), dequeueRate(items, threads, shared));
+    	}
+    }
+    
+    private static double dequeueRate(final Integer[] items, int threads, final RandomGenerator random) throws InterruptedException {
+    // Fills one queue per thread, then times all threads emptying their queues at once. Returns millions of dequeues per second
+        final List<RandomizedQueue<Integer>> queues = new ArrayList<RandomizedQueue<Integer>>();
+        for (int t = 0; t < threads; t++) {
+            RandomizedQueue<Integer> queue = new RandomizedQueue<Integer>(random);
+            queue.enqueueAll(items);
+            queues.add(queue);
+        }
+        
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final RandomizedQueue<Integer> queue = queues.get(t);
+            workers[t] = new Thread(() -> { while (!queue.isEmpty()) queue.dequeue(); });
+        }
+        long start = System.nanoTime();
+        for (Thread worker : workers) worker.start();
+        for (Thread worker : workers) worker.join();
+        return (double) threads * items.length / (System.nanoTime() - start) * 1e3;
     }
 	
 }
@@ -0,0 +1,159 @@
+/* Keeps a uniform random sample of at most k of the items offered so far, for streams too long to keep in a RandomizedQueue. It uses Algorithm L
+ * (Li, 1994): after the first k items, it draws how many items to skip before the next one that goes into the sample, so most items are dropped without
+ * drawing a random number, and the whole stream costs O(k (1 + log(N / k))) draws. sample() and iterator() work on the current sample; nothing can be
+ * taken out, since that would make the sample no longer uniform. Random numbers come from the RandomGenerator passed to the constructor, or from the
+ * calling thread's ThreadLocalRandom, as in RandomizedQueue */
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
+
+public class ReservoirSampler<Item> implements Iterable<Item> {
+    private final int k;
+    private Item[] s;
+    private int n;                          // items in the sample, k once the stream is that long
+    private int modCount;                   // bumped by every change, so iterators can tell the items moved under them
+    private final RandomGenerator random;   // null for the calling thread's ThreadLocalRandom
+    private long seen;                      // items offered so far
+    private long next;                      // number of the next item to go into the sample, counting from 1
+    private double w;                       // Algorithm L's W: the largest of the k random keys in the sample, as of the next item to go in
+
+    public ReservoirSampler(int k)
+    // Initializes a ReservoirSampler of at most k items that draws from the calling thread's ThreadLocalRandom
+    {    this(k, null);    }
+
+    public ReservoirSampler(int k, RandomGenerator random) {
+    // Initializes a ReservoirSampler of at most k items that draws from random. The array starts small and grows up to k
+        if (k <= 0) throw new IllegalArgumentException();
+        this.k = k;
+        this.random = random;
+        s = (Item[]) new Object[Math.min(k, 2)];
+        w = Math.exp(Math.log(open()) / k);
+        next = k;
+        skip();
+    }
+
+    private double open()
+    // Returns a random double between (0, 1], which can go into a logarithm
+    {    return 1 - (random != null ? random : ThreadLocalRandom.current()).nextDouble();    }
+
+    private int uniform(int bound)
+    // Returns a random integer between [0, bound)
+    {    return (random != null ? random : ThreadLocalRandom.current()).nextInt(bound);    }
+
+    private void skip() {
+    // Moves next past the items that will not make it into the sample, then lowers w for the item after them (Algorithm L)
+        double gap = Math.floor(Math.log(open()) / Math.log1p(-w));
+        next = gap < Long.MAX_VALUE - next ? next + (long) gap + 1 : Long.MAX_VALUE;
+        w *= Math.exp(Math.log(open()) / k);
+    }
+
+    private void replace(Item item) {
+    // Puts item into the full sample in place of a random one, and draws the next gap
+        s[uniform(n)] = item;
+        modCount++;
+        skip();
+    }
+
+    public boolean isEmpty()
+    // Is the sample empty?
+    {    return n == 0;    }
+
+    public int size()
+    // Number of items in the sample, at most k
+    {    return n;    }
+
+    public long seen()
+    // Number of items offered so far
+    {    return seen;    }
+
+    public void offer(Item item) {
+    // Offers the next item of the stream. Until the sample is full it always goes in, afterwards only if its number is up
+        if (item == null) throw new NullPointerException();
+
+        if (++seen > k) {
+            if (seen == next) replace(item);
+            return;
+        }
+        if (n == s.length) s = Arrays.copyOf(s, Math.min(2 * n, k));
+        s[n++] = item;
+        modCount++;
+    }
+
+    public void offerAll(Item[] items) {
+    // Offers all items, jumping straight to the ones that go into the sample. Offers nothing if any item is null
+        for (Item item : items) if (item == null) throw new NullPointerException();
+
+        int i = 0;
+        while (i < items.length && seen < k) offer(items[i++]);
+        while (next - seen <= items.length - i) {
+            i += (int) (next - seen) - 1;
+            seen = next;
+            replace(items[i++]);
+        }
+        seen += items.length - i;
+    }
+
+    public void offerAll(Collection<? extends Item> items)
+    // Offers all items of a collection, as above
+    {    offerAll((Item[]) items.toArray());    }
+
+    public Item sample() {
+    // Returns (but does not remove) a random item of the sample
+        if (n == 0) throw new NoSuchElementException();
+        return s[uniform(n)];
+    }
+
+    public Iterator<Item> iterator()
+    // Returns an iterator over the sample, in an order that is random and independent of other iterators. Starts in O(1)
+    {    return new SampleIterator();    }
+
+    private class SampleIterator implements Iterator<Item> {
+    // Draws indices into the sample from a LazyShuffle, like RandomizedQueue's iterator. Offering an item that changes the sample while iterating throws
+        private final LazyShuffle order = new LazyShuffle(n, random);
+        private final int expectedModCount = modCount;
+
+        public boolean hasNext()
+        {    return order.hasNext();    }
+
+        public Item next() {
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+            if (!hasNext()) throw new NoSuchElementException();
+            return s[order.next()];
+        }
+    }
+
+    public static void main(String[] args) {
+    /* Every item of a stream of 100 has to end up in a sample of 10 with probability 1/10, checked by a chi-square statistic, both for items offered
+     * one by one and through offerAll(). Then a long stream goes through a sample of 1000 items in O(1000) memory */
+        Integer[] stream = new Integer[100];
+        for (int i = 0; i < stream.length; i++) stream[i] = i;
+        for (boolean bulk : new boolean[]{false, true}) {
+            long[] counts = new long[stream.length];
+            int reps = 200000;
+            for (int rep = 0; rep < reps; rep++) {
+                ReservoirSampler<Integer> reservoir = new ReservoirSampler<Integer>(10);
+                if (bulk) reservoir.offerAll(stream);
+                else for (Integer item : stream) reservoir.offer(item);
+                for (Integer item : reservoir) counts[item]++;
+            }
+            double expected = reps * 10.0 / stream.length, chiSquare = 0;
+            for (long c : counts) chiSquare += (c - expected) * (c - expected) / expected;
+            System.out.printf("sample of 10 from 100 items%s: chi-square %.2f with %d degrees of freedom%n", bulk ? " by offerAll" : "", chiSquare, stream.length - 1);
+            if (chiSquare > 99 + 6 * Math.sqrt(2 * 99)) throw new AssertionError("sample is not uniform");
+        }
+
+        Integer[] items = new Integer[1000000];
+        for (int i = 0; i < items.length; i++) items[i] = i;
+        ReservoirSampler<Integer> reservoir = new ReservoirSampler<Integer>(1000);
+        long start = System.nanoTime();
+        for (int round = 0; round < 20; round++) for (Integer item : items) reservoir.offer(item);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("sample of 1000: %d items streamed at %.0f M items/sec, %d kept, array of %d%n", reservoir.seen(), reservoir.seen() / seconds / 1e6,
+                          reservoir.size(), ((ReservoirSampler) reservoir).s.length);
+    }
+}
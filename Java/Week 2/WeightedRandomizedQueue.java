@@ -0,0 +1,321 @@
+/* A RandomizedQueue in which every item has a weight, and sample() and dequeue() pick an item with probability proportional to its weight. The items sit in
+ * an array like RandomizedQueue's, next to their weights, and a Fenwick tree (binary indexed tree) over that array keeps the prefix sums of the weights, so
+ * picking an item is a walk down the tree and takes O(log n), as do adding, removing and re-weighting. enqueue() returns a handle that stays valid until
+ * the item is removed, for use with updateWeight() and remove(). Handles of removed items are reused.
+ *
+ * The tree accumulates floating-point rounding as weights come and go, so it is rebuilt from the exact weights every few times its length in updates,
+ * which keeps the error at the level of a single rebuild for O(1) amortized extra work per update */
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
+
+public class WeightedRandomizedQueue<Item> implements Iterable<Item> {
+    private Item[] items;       // by position, positions [0, n) are in use
+    private double[] weights;   // by position
+    private int[] handleAt;     // by position
+    private double[] tree;      // Fenwick tree over the weights, 1-based, as long as items plus one
+    private int n;
+    private int updates;        // tree updates since the last rebuild
+
+    private int[] position = new int[2];               // by handle, -1 for a free handle
+    private int handles;                               // handles [0, handles) have been given out at some point
+    private final IntDeque freeHandles = new IntDeque();
+    private final RandomGenerator random;              // null for the calling thread's ThreadLocalRandom
+
+    public WeightedRandomizedQueue()
+    // Initializes a WeightedRandomizedQueue that draws from the calling thread's ThreadLocalRandom
+    {    this(null);    }
+
+    public WeightedRandomizedQueue(RandomGenerator random) {
+    // Initializes a WeightedRandomizedQueue with room for 2 items that draws from random
+        items = (Item[]) new Object[2];
+        weights = new double[2];
+        handleAt = new int[2];
+        tree = new double[3];
+        this.random = random;
+    }
+
+    public boolean isEmpty()
+    // Is the WeightedRandomizedQueue empty?
+    {    return n == 0;    }
+
+    public int size()
+    // Returns the number of items in the WeightedRandomizedQueue
+    {    return n;    }
+
+    public double totalWeight()
+    // Returns the sum of the weights of all items. The root of the tree covers every position because the capacity is a power of two
+    {    return n == 0 ? 0 : tree[items.length];    }
+
+    public int enqueue(Item item, double weight) {
+    // Adds item with the given weight, which has to be positive and finite, and returns its handle
+        if (item == null) throw new NullPointerException();
+        checkWeight(weight);
+
+        if (n == items.length) resize(2 * n);
+        int handle = freeHandles.isEmpty() ? newHandle() : freeHandles.removeLast();
+        items[n] = item;
+        weights[n] = weight;
+        handleAt[n] = handle;
+        position[handle] = n;
+        add(tree, n, weight);
+        n++;
+        countUpdates(1);
+        return handle;
+    }
+
+    private int newHandle() {
+    // Hands out a handle that has never been used, doubling the handle table if needed
+        if (handles == position.length) {
+            int[] copy = new int[2 * handles];
+            System.arraycopy(position, 0, copy, 0, handles);
+            position = copy;
+        }
+        return handles++;
+    }
+
+    public Item sample() {
+    // Returns (but does not remove) an item, picked with probability proportional to its weight
+        if (n == 0) throw new NoSuchElementException();
+
+        return items[pick()];
+    }
+
+    public Item dequeue() {
+    // Removes an item picked with probability proportional to its weight, and returns it
+        if (n == 0) throw new NoSuchElementException();
+
+        return removeAt(pick());
+    }
+
+    public Item remove(int handle)
+    // Removes the item with the given handle, and returns it
+    {    return removeAt(positionOf(handle));    }
+
+    public double weight(int handle)
+    // Returns the weight of the item with the given handle
+    {    return weights[positionOf(handle)];    }
+
+    public void updateWeight(int handle, double weight) {
+    // Changes the weight of the item with the given handle
+        checkWeight(weight);
+        int i = positionOf(handle);
+
+        add(tree, i, weight - weights[i]);
+        weights[i] = weight;
+        countUpdates(1);
+    }
+
+    private int pick()
+    // Position of a random item, chosen by weight. Rounding in the tree can at worst point past the last item, which then gets the pick
+    {    return Math.min(find(tree, uniform() * tree[items.length]), n - 1);    }
+
+    private Item removeAt(int i) {
+    // Removes the item at position i. The last item moves into its place, as in RandomizedQueue, and the array is halved once it is a quarter full
+        Item item = items[i];
+        int handle = handleAt[i];
+        int last = n - 1;
+
+        add(tree, i, -weights[i]);
+        if (i != last) {
+            add(tree, i, weights[last]);
+            add(tree, last, -weights[last]);
+            items[i] = items[last];
+            weights[i] = weights[last];
+            handleAt[i] = handleAt[last];
+            position[handleAt[i]] = i;
+        }
+        items[last] = null;   // to avoid loitering
+        weights[last] = 0;
+        position[handle] = -1;
+        freeHandles.addLast(handle);
+        n--;
+        countUpdates(3);
+
+        if (n > 0 && n == items.length / 4) resize(items.length / 2);
+        return item;
+    }
+
+    private int positionOf(int handle) {
+    // Position of the item with the given handle
+        if (handle < 0 || handle >= handles || position[handle] < 0) throw new IllegalArgumentException("no item with handle " + handle);
+        return position[handle];
+    }
+
+    private static void checkWeight(double weight)
+    // Weights have to be positive and finite, so that every item can be picked and the total stays finite
+    {    if (!(weight > 0) || weight == Double.POSITIVE_INFINITY) throw new IllegalArgumentException("weight " + weight);    }
+
+    private void resize(int capacity) {
+    // Moves the items and weights to arrays of the given capacity and builds the tree for them
+        Item[] itemsCopy = (Item[]) new Object[capacity];
+        double[] weightsCopy = new double[capacity];
+        int[] handleAtCopy = new int[capacity];
+        System.arraycopy(items, 0, itemsCopy, 0, n);
+        System.arraycopy(weights, 0, weightsCopy, 0, n);
+        System.arraycopy(handleAt, 0, handleAtCopy, 0, n);
+        items = itemsCopy;
+        weights = weightsCopy;
+        handleAt = handleAtCopy;
+        tree = new double[capacity + 1];
+        build(tree, weights, n);
+        updates = 0;
+    }
+
+    private void countUpdates(int count) {
+    // Rebuilds the tree from the weights once it has seen more updates than it has nodes
+        updates += count;
+        if (updates >= tree.length) {
+            build(tree, weights, n);
+            updates = 0;
+        }
+    }
+
+    private double uniform()
+    // Returns a random double between [0, 1)
+    {    return (random != null ? random : ThreadLocalRandom.current()).nextDouble();    }
+
+    private static void add(double[] tree, int i, double delta)
+    // Adds delta to the weight at position i
+    {    for (int j = i + 1; j < tree.length; j += j & -j) tree[j] += delta;    }
+
+    private static int find(double[] tree, double r) {
+    /* Position of the first item whose prefix sum of weights exceeds r, found by walking down from the root: at every level, step over the
+     * left subtree if all of its weight is at most r. Needs tree.length - 1 to be a power of two */
+        int i = 0;
+        for (int step = (tree.length - 1); step > 0; step >>= 1) {
+            if (i + step < tree.length && tree[i + step] <= r) {
+                i += step;
+                r -= tree[i];
+            }
+        }
+        return i;
+    }
+
+    private static void build(double[] tree, double[] weights, int n) {
+    // Builds the tree over weights [0, n) in O(length): every node passes its sum on to its parent
+        Arrays.fill(tree, 0);
+        for (int i = 0; i < n; i++) tree[i + 1] = weights[i];
+        for (int j = 1; j < tree.length; j++) {
+            int parent = j + (j & -j);
+            if (parent < tree.length) tree[parent] += tree[j];
+        }
+    }
+
+    public Iterator<Item> iterator()
+    // Returns a new iterator over all items, in random order by weight: every step picks from the items not returned yet, proportional to weight
+    {    return new WeightedIterator();    }
+
+    private class WeightedIterator implements Iterator<Item> {
+    /* Draws from its own copy of the weights and the tree, setting the weight of every item it returns to zero. Copying is O(n), like the
+     * copy RandomizedQueue's iterator used to make, but weighted order cannot be generated from a uniform shuffle */
+        private final Item[] iterItems = items.clone();
+        private final double[] iterWeights = weights.clone();
+        private final double[] iterTree = tree.clone();
+        private final int size = n;
+        private int remaining = n;
+
+        public boolean hasNext()
+        {    return remaining > 0;    }
+
+        public void remove()
+        {    throw new UnsupportedOperationException();    }
+
+        public Item next() {
+            if (!hasNext()) throw new NoSuchElementException();
+
+            int i = find(iterTree, uniform() * iterTree[iterTree.length - 1]);
+            while (i >= size || iterWeights[i] == 0) {   // rounding led to a returned item, so start over from the exact weights
+                build(iterTree, iterWeights, size);
+                i = find(iterTree, uniform() * iterTree[iterTree.length - 1]);
+            }
+            add(iterTree, i, -iterWeights[i]);
+            iterWeights[i] = 0;
+            remaining--;
+            return iterItems[i];
+        }
+    }
+
+    public static void main(String[] args) {
+    /* Distribution check and benchmark. Samples items with weights 1..10 and compares the counts with the expected ones by a chi-square
+     * statistic, then does the same for the first item dequeued, and again after updating a weight. Then times enqueue, sample and dequeue on
+     * count items with random weights, next to the linear scan over the weights that sampling used to take. Item count can be passed as an argument */
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        RandomGenerator random = new SplittableRandom(42);
+
+        WeightedRandomizedQueue<Integer> small = new WeightedRandomizedQueue<Integer>(random);
+        int[] handles = new int[10];
+        for (int i = 0; i < 10; i++) handles[i] = small.enqueue(i, i + 1);
+        long[] counts = new long[10];
+        for (int k = 0; k < 5500000; k++) counts[small.sample()]++;
+        checkDistribution("sample", counts, new double[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10});
+
+        counts = new long[10];
+        for (int k = 0; k < 550000; k++) {
+            WeightedRandomizedQueue<Integer> queue = new WeightedRandomizedQueue<Integer>(random);
+            for (int i = 0; i < 10; i++) queue.enqueue(i, i + 1);
+            counts[queue.dequeue()]++;
+        }
+        checkDistribution("first dequeue", counts, new double[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10});
+
+        small.updateWeight(handles[0], 46);   // now item 0 carries as much weight as all others together
+        small.remove(handles[9]);
+        counts = new long[10];
+        for (int k = 0; k < 1000000; k++) counts[small.sample()]++;
+        checkDistribution("after updateWeight", counts, new double[]{46, 2, 3, 4, 5, 6, 7, 8, 9, 0});
+
+        for (int round = 0; round < 3; round++) {   // the first rounds are warm-up for the JIT
+            WeightedRandomizedQueue<Integer> queue = new WeightedRandomizedQueue<Integer>(random);
+            double[] weights = new double[count];
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) queue.enqueue(i, weights[i] = 1 + random.nextDouble() * 99);
+            long enqueued = System.nanoTime();
+            long sum = 0;
+            for (int k = 0; k < count; k++) sum += queue.sample();
+            long sampled = System.nanoTime();
+            while (!queue.isEmpty()) sum += queue.dequeue();
+            long dequeued = System.nanoTime();
+
+            int scans = 1000;   // sampling by a linear scan over all weights, as done outside the class before
+            double total = 0;
+            for (double weight : weights) total += weight;
+            for (int k = 0; k < scans; k++) {
+                double r = random.nextDouble() * total;
+                int i = 0;
+                while (i < count - 1 && (r -= weights[i]) >= 0) i++;
+                sum += i;
+            }
+            long scanned = System.nanoTime();
+
+            if (sum < 0) throw new AssertionError();
+            System.out.printf("round %d, %d items: enqueue %.1f M/sec, sample %.1f M/sec, dequeue %.1f M/sec, linear scan %.4f M samples/sec%n", round, count,
+                              count / ((enqueued - start) / 1e3), count / ((sampled - enqueued) / 1e3), count / ((dequeued - sampled) / 1e3),
+                              scans / ((scanned - dequeued) / 1e3));
+        }
+    }
+
+    private static void checkDistribution(String name, long[] counts, double[] weights) {
+    // Prints the chi-square statistic of counts against weights, and fails if it is far beyond what chance explains (about 6 standard deviations)
+        double total = 0, draws = 0;
+        for (double weight : weights) total += weight;
+        for (long count : counts) draws += count;
+
+        double chiSquare = 0;
+        int df = -1;
+        for (int i = 0; i < counts.length; i++) {
+            if (weights[i] == 0) {
+                if (counts[i] != 0) throw new AssertionError(name + ": item " + i + " has no weight but was drawn");
+                continue;
+            }
+            double expected = draws * weights[i] / total;
+            chiSquare += (counts[i] - expected) * (counts[i] - expected) / expected;
+            df++;
+        }
+        System.out.printf("%s: chi-square %.2f with %d degrees of freedom%n", name, chiSquare, df);
+        if (chiSquare > df + 6 * Math.sqrt(2 * df)) throw new AssertionError(name + ": counts do not follow the weights");
+    }
+}
@@ -0,0 +1,210 @@
+/* Lock-free Deque for work stealing (the Chase-Lev deque). One thread owns the deque and pushes and pops at the bottom with addLast() and removeLast();
+ * any number of other threads steal from the top with removeFirst(). Nothing is ever added at the top, so there is no addFirst(). The owner only
+ * synchronizes with thieves when they race for the very last item, so in the common case the owner's operations are a few plain and volatile reads and
+ * writes. Items sit in a circular array indexed by two ever-increasing counters: top (the next item to steal) and bottom (the next free slot). The owner
+ * grows the array when it is full. The array never shrinks, because a thief may still be reading the old one, so every slot is cleared once its item is
+ * taken, to keep finished items from staying reachable until the slot is reused.
+ *
+ * Since a concurrent isEmpty() check followed by a remove can always lose a race, pollFirst() and pollLast() return null instead of throwing when there
+ * is nothing to take */
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class WorkStealingDeque<Item> implements Iterable<Item> {
+    private static final int MIN_CAPACITY = 32;
+
+    private final AtomicLong top = new AtomicLong();   // only ever increased, by a CAS from a thief or from the owner taking the last item
+    private volatile long bottom = 0;                  // only written by the owner
+    private volatile AtomicReferenceArray<Item> array = new AtomicReferenceArray<Item>(MIN_CAPACITY);
+
+    public boolean isEmpty()
+    // Is the deque empty? Only a snapshot when other threads are using it
+    {    return size() == 0;    }
+
+    public int size() {
+    // Number of items at the moment top and bottom were read. Exact when nobody else is using the deque, otherwise an estimate
+        long b = bottom;
+        long t = top.get();
+        return (int) Math.max(0, Math.min(b - t, Integer.MAX_VALUE));
+    }
+
+    public void addLast(Item item) {
+    // Pushes item at the bottom. Owner thread only
+        if (item == null) throw new NullPointerException();
+
+        long b = bottom;
+        long t = top.get();
+        AtomicReferenceArray<Item> a = array;
+        if (b - t >= a.length()) a = grow(a, t, b);
+        a.set((int) b & (a.length() - 1), item);
+        bottom = b + 1;   // the volatile write publishes the item to thieves
+    }
+
+    private AtomicReferenceArray<Item> grow(AtomicReferenceArray<Item> a, long t, long b) {
+    // Copies items [t, b) into an array twice as large. Thieves still holding the old array read the same items from it
+        AtomicReferenceArray<Item> copy = new AtomicReferenceArray<Item>(2 * a.length());
+        for (long i = t; i < b; i++) copy.set((int) i & (copy.length() - 1), a.get((int) i & (a.length() - 1)));
+        array = copy;
+        return copy;
+    }
+
+    public Item removeLast() {
+    // Pops the item at the bottom. Owner thread only
+        Item item = pollLast();
+        if (item == null) throw new NoSuchElementException();
+        return item;
+    }
+
+    public Item pollLast() {
+    /* Pops the item at the bottom, or returns null if the deque is empty. Owner thread only. bottom is lowered before top is read, so a thief
+     * that gets past its own check afterwards can only be going for the same item, and then the CAS on top decides who gets it */
+        long b = bottom - 1;
+        AtomicReferenceArray<Item> a = array;
+        bottom = b;
+        long t = top.get();
+        if (t > b) {   // was already empty
+            bottom = b + 1;
+            return null;
+        }
+
+        int slot = (int) b & (a.length() - 1);
+        Item item = a.get(slot);
+        if (t < b) {   // more than one item left, so no thief can be after this one
+            a.set(slot, null);
+            return item;
+        }
+        if (!top.compareAndSet(t, t + 1)) item = null;   // last item, and a thief took it first
+        else a.compareAndSet(slot, item, null);
+        bottom = b + 1;
+        return item;
+    }
+
+    public Item removeFirst() {
+    // Steals the item at the top. Any thread
+        Item item = pollFirst();
+        if (item == null) throw new NoSuchElementException();
+        return item;
+    }
+
+    public Item pollFirst() {
+    // Steals the item at the top, or returns null if the deque is empty. Any thread. Retries when another thread takes the same item first
+        while (true) {
+            long t = top.get();
+            long b = bottom;
+            if (t >= b) return null;
+
+            AtomicReferenceArray<Item> a = array;
+            int slot = (int) t & (a.length() - 1);
+            Item item = a.get(slot);
+            if (top.compareAndSet(t, t + 1)) {
+                a.compareAndSet(slot, item, null);   // only if the owner has not put a new item there since
+                return item;
+            }
+        }
+    }
+
+    public Iterator<Item> iterator()
+    // Returns a weakly consistent iterator, top to bottom: it may or may not see changes made after it was created, and never throws because of them
+    {    return new SnapshotIterator();    }
+
+    private class SnapshotIterator implements Iterator<Item> {
+    // Walks the slots between top and bottom as they were when the iterator was created, skipping slots the owner has cleared since
+        private final AtomicReferenceArray<Item> a = array;
+        private final long end = bottom;
+        private long i = Math.min(top.get(), end);
+        private Item next = advance();
+
+        private Item advance() {
+            while (i < end) {
+                Item item = a.get((int) i++ & (a.length() - 1));
+                if (item != null) return item;
+            }
+            return null;
+        }
+
+        public boolean hasNext()
+        {    return next != null;    }
+
+        public void remove()
+        {    throw new UnsupportedOperationException();    }
+
+        public Item next() {
+            if (!hasNext()) throw new NoSuchElementException();
+
+            Item item = next;
+            next = advance();
+            return item;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+    /* Stress test and benchmark: the owner pushes count items in bursts and pops some of them back, while thieves steal. Every item has to be
+     * taken exactly once. Runs with 1 up to 2 * cores thieves and prints the throughput next to a Deque guarded by a single lock, the way the
+     * scheduler used to share it. Item count can be passed as an argument */
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int cores = Runtime.getRuntime().availableProcessors();
+        final Integer[] items = new Integer[count];
+        for (int i = 0; i < count; i++) items[i] = i;
+
+        for (int thieves = 1; thieves <= 2 * cores; thieves *= 2) {
+            System.out.printf("%2d thieves: work-stealing %.1f M items/sec, locked Deque %.1f M items/sec%n", thieves,
+                              run(items, thieves, true), run(items, thieves, false));
+        }
+    }
+
+    private static double run(final Integer[] items, int thieves, final boolean lockFree) throws InterruptedException {
+    // One round of the stress test, returning millions of items per second. Checks that every item was taken exactly once
+        final WorkStealingDeque<Integer> deque = new WorkStealingDeque<Integer>();
+        final Deque<Integer> locked = new Deque<Integer>();
+        final AtomicIntegerArray taken = new AtomicIntegerArray(items.length);
+        final AtomicLong done = new AtomicLong();
+        final List<Thread> threads = new ArrayList<Thread>();
+
+        for (int k = 0; k < thieves; k++) {
+            threads.add(new Thread() {
+                public void run() {
+                    while (done.get() < items.length) {
+                        Integer item;
+                        if (lockFree) item = deque.pollFirst();
+                        else synchronized (locked) { item = locked.isEmpty() ? null : locked.removeFirst(); }
+                        if (item != null) take(item);
+                    }
+                }
+
+                private void take(Integer item) {
+                    if (taken.getAndIncrement(item) != 0) throw new AssertionError("item " + item + " taken twice");
+                    done.incrementAndGet();
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) thread.start();
+        for (int i = 0; i < items.length; i++) {
+            if (lockFree) deque.addLast(items[i]);
+            else synchronized (locked) { locked.addLast(items[i]); }
+
+            if (i % 64 == 63) {   // the owner works off part of its own backlog, racing the thieves for the last items
+                for (int k = 0; k < 16; k++) {
+                    Integer item;
+                    if (lockFree) item = deque.pollLast();
+                    else synchronized (locked) { item = locked.isEmpty() ? null : locked.removeLast(); }
+                    if (item == null) break;
+                    if (taken.getAndIncrement(item) != 0) throw new AssertionError("item " + item + " taken twice");
+                    done.incrementAndGet();
+                }
+            }
+        }
+        for (Thread thread : threads) thread.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        if (done.get() != items.length) throw new AssertionError("lost items");
+        return items.length / seconds / 1e6;
+    }
+}
@@ -1,41 +1,49 @@
 /* Class that uses brute force to determine how many non-degenerate non-duplicate 4-point lines exist within points. For this class, it can be assumed that points
  * will only contain lines of 4 points maximum. BruteCollinearPoints iterates through every possible combination of points that exists within points and adds a new
- * LineSegment that contains those four points */
+ * LineSegment that contains those four points. Like FastCollinearPoints, it runs on the coordinates of a PointStore in natural order (PointStore.order()), so
+ * the first and last of the four are its ends, and it finds the segments as pairs of point indices. Slopes are compared by their exact keys (Point.slopeKey()) */
 
 import java.util.Arrays;
 
 public class BruteCollinearPoints {
-    private LineSegment[] segments;
+    private final PointStore store;
     private int n;
+    private int[] ends;    // segment k goes from point ends[2k] to point ends[2k + 1] of store
     
-    public BruteCollinearPoints(Point[] points) {        
+    public BruteCollinearPoints(Point[] points)
+    // Finds the lines of points. Segments are made of the given Point objects
+    {    this(PointStore.of(points));    }
+    
+    public BruteCollinearPoints(PointStore store) {        
     /* To greatly reduce the cost of each individual call to numberOfSegments() and segments(), all valid line segments
      * are found during the initialization of BruteCollinearPoints */
-        if (points == null) throw new NullPointerException();
-        if (containsDupe(points)) throw new IllegalArgumentException();
+        if (store == null) throw new NullPointerException();
+        this.store = store;
+        int[] order = store.order();
         
-        n = 0;
-        segments = new LineSegment[2];
+        int len = order.length;
+        int[] xs = new int[len], ys = new int[len];
+        for (int i = 0; i < len; i++) {
+            xs[i] = store.x(order[i]);
+            ys[i] = store.y(order[i]);
+        }
         
-        if (points.length < 4) return;
+        n = 0;
+        ends = new int[4];
         
-        for (int i = 0; i < points.length - 3; i++) {
+        for (int i = 0; i < len - 3; i++) {
         // Point collinearity is determined by their slopes to each other
-            Point p = points[i];
-            for (int j = i + 1; j < points.length - 2; j++) {
-                Point q = points[j];
-                for (int k = j + 1; k < points.length - 1; k++) {                    
-                    Point r = points[k];
-                    if (p.slopeTo(q) != p.slopeTo(r)) continue;
-                    for (int l = k + 1; l < points.length; l++) {
-                        Point s = points[l];
-                        if (q.slopeTo(r) == q.slopeTo(s)) {
-                            Point[] colPoints = new Point[]{p, q, r, s};
-                            Arrays.sort(colPoints);
-                   
-                            segments[n++] = new LineSegment(colPoints[0], colPoints[3]);
-                            if (n == segments.length) resize(2 * n);
-                            
+            for (int j = i + 1; j < len - 2; j++) {
+                long pq = Point.slopeKey(xs[i], ys[i], xs[j], ys[j]);
+                for (int k = j + 1; k < len - 1; k++) {                    
+                    if (pq != Point.slopeKey(xs[i], ys[i], xs[k], ys[k])) continue;
+                    long qr = Point.slopeKey(xs[j], ys[j], xs[k], ys[k]);
+                    for (int l = k + 1; l < len; l++) {
+                        if (qr == Point.slopeKey(xs[j], ys[j], xs[l], ys[l])) {
+                            if (2 * n + 2 > ends.length) ends = Arrays.copyOf(ends, 2 * ends.length);
+                            ends[2 * n] = order[i];   // back from natural order to the store's indices
+                            ends[2 * n + 1] = order[l];
+                            n++;
                         }
                     }
                 }
@@ -47,30 +55,13 @@ public class BruteCollinearPoints {
     // Returns number of valid segments
     {    return n;  }
     
-    public LineSegment[] segments() {
-    // Returns an array of all valid segments
-        LineSegment[] copy = new LineSegment[n];
-        for (int i = 0; i < n; i++) {
-            copy[i] = segments[i];
-        }
-        return copy;
-        
-    }
+    public LineSegment[] segments()
+    // Returns an array of all valid segments, made of the store's points
+    {    return store.segments(ends, n);    }
     
-    private boolean containsDupe(Point[] points) {
-    // Does points contain a duplicate point?
-        for (int i = 0; i < points.length - 1; i++)
-            for (int j = i + 1; j < points.length; j++)
-                if (points[i].compareTo(points[j]) == 0) return true;
-        return false;
-    }
-
-    private void resize(int capacity) {
-    // Efficiently resize a fixed length array
-        LineSegment[] copy = (new LineSegment[capacity]);
-        for (int i = 0; i < n; i++) copy[i] = segments[i];
-        segments = copy;
-    }
+    public int[] segmentEnds()
+    // Returns the ends of the segments as point indices into the store (or the Point[]), segment k going from index [2k] to index [2k + 1]
+    {    return Arrays.copyOf(ends, 2 * n);    }
     
     public static void main(String[] args) {        
         
@@ -0,0 +1,53 @@
+/* Input validation for the collinear finders that work on Point objects. Instead of comparing every pair of points to find duplicates, which is n^2
+ * compareTo() calls, the points are sorted once into their natural order (Point's compareTo(): by y, then by x, see PointStore.order()), where
+ * duplicates can only sit next to each other. The finders then work on the sorted copy, where the order of two points is simply the order of their
+ * indices, so the smallest and the largest point of a line no longer need a sort or any comparisons to find */
+
+final class CollinearInput {
+    private CollinearInput() { }
+
+    static Point[] sorted(Point[] points) {
+    // Returns a copy of points in natural order. Throws NullPointerException if points or any point is null, IllegalArgumentException on a duplicate point
+        if (points == null) throw new NullPointerException();
+        for (Point point : points) if (point == null) throw new NullPointerException();
+
+        int[] order = PointStore.of(points).order();
+        Point[] sorted = new Point[points.length];
+        for (int i = 0; i < sorted.length; i++) sorted[i] = points[order[i]];
+        return sorted;
+    }
+
+    private static boolean containsDupe(Point[] points) {
+    // The pairwise check the finders used before, kept to time against
+        for (int i = 0; i < points.length - 1; i++)
+            for (int j = i + 1; j < points.length; j++)
+                if (points[i].compareTo(points[j]) == 0) return true;
+        return false;
+    }
+
+    public static void main(String[] args) {
+    /* Times sorted() against the pairwise check on random points without duplicates, the worst case for both. The pairwise check is skipped
+     * beyond 50000 points, where it takes minutes. Sizes can be passed as arguments */
+        int[] sizes = {20000, 50000, 200000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        for (int size : sizes) {
+            Point[] points = FastCollinearPoints.random(size, size);
+            for (int round = 0; round < 3; round++) {   // the first rounds are warm-up for the JIT
+                long start = System.nanoTime();
+                sorted(points);
+                long middle = System.nanoTime();
+                boolean dupe = size <= 50000 && containsDupe(points);
+                long end = System.nanoTime();
+
+                if (dupe) throw new AssertionError();
+                System.out.printf("%7d points: sort and scan %7.1f ms", size, (middle - start) / 1e6);
+                if (size <= 50000) System.out.printf(", pairwise %9.1f ms", (end - middle) / 1e6);
+                System.out.println();
+            }
+        }
+    }
+}
@@ -1,109 +1,333 @@
-/* Class that finds all maximal non-degenerate non-duplicate lines with at least 4 Points within the given array (called points) within (n^2)logn time 
- * (compared to n^4 time of the brute force variant). For each point p in points, FastCollearPoints sorts all the other points by the slope p makes with 
- * those points. All points with the same slope must exist on the same line, and FastCollinearPoints creates the longest non-degenerate line possible out 
+/* Class that finds all maximal non-degenerate non-duplicate lines with at least 4 Points within the given array (called points) within (n^2)logn time
+ * (compared to n^4 time of the brute force variant). For each point p in points, FastCollearPoints sorts all the other points by the slope p makes with
+ * those points. All points with the same slope must exist on the same line, and FastCollinearPoints creates the longest non-degenerate line possible out
  * of those points. To avoid duplicates, lines are only added if p is the smallest value in that line. Points are compared using the compareTo() method
- * from the class Points */
+ * from the class Points.
+ *
+ * The slopes are not compared as doubles: for each p, every other point's slope is turned into an exact integer key once (Point.slopeKey()), and the
+ * keys are sorted together with the points' indices by a radix sort over primitive arrays, so there are no comparator calls and no divisions inside the
+ * sort. Segments come out the same, and in the same order, as sorting with slopeOrder() on the points in natural order. Given a ForkJoinPool, the pivots
+ * are split across its workers.
+ *
+ * The points are taken in natural order (PointStore.order(), which also finds duplicates in n logn time). The radix sort is stable and starts from
+ * the indices in order, so the points of every run of equal slopes stay in natural order too, and the ends of a line are just the first and last index.
+ * It runs on the coordinates of a PointStore and finds the segments as pairs of point indices; a Point[] is only an adapter over a store, and
+ * LineSegments are only made when segments() asks for them */
 
-import java.util.Arrays;   
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class FastCollinearPoints {
-    /* To greatly reduce the cost of each individual call to the getters numberOfSegments() and segments(), all maximal 
+    /* To greatly reduce the cost of each individual call to the getters numberOfSegments() and segments(), all maximal
      * line segments are found during the initialization of FastCollinearPoints */
+    private static final int KEY_BITS = 47;   // slope keys are below 2^47
+    private static final int DIGIT_BITS = 8;  // the radix sort goes through the keys a byte at a time
+
+    /* Pivots are split into about this many contiguous chunks, each one collecting its own segments, which are joined in chunk order at the end.
+     * Enough chunks for work stealing to even out pivots with many lines, and the same on every pool, so the output never depends on it */
+    private static final int CHUNKS = 256;
+
+    private final PointStore store;
     private int n;
-    private LineSegment[] segments;
-    
-    public FastCollinearPoints(Point[] points) {
-        if (points == null) throw new NullPointerException();
-        if (containsDupe(points)) throw new IllegalArgumentException();
-        
-        n = 0;
-        segments = new LineSegment[2];
-  
-        findLines(points);
+    private int[] ends;    // segment k goes from point ends[2k] to point ends[2k + 1] of store
+
+    public FastCollinearPoints(Point[] points)
+    // Finds the lines on the calling thread
+    {    this(points, null);    }
+
+    public FastCollinearPoints(Point[] points, ForkJoinPool pool)
+    // Finds the lines on the given pool, or on the calling thread if pool is null. Segments are made of the given Point objects
+    {    this(PointStore.of(points), pool);    }
+
+    public FastCollinearPoints(PointStore store)
+    // Finds the lines of the points in store on the calling thread
+    {    this(store, null);    }
+
+    public FastCollinearPoints(PointStore store, ForkJoinPool pool) {
+    /* Finds the lines of the points in store on the given pool, or on the calling thread if pool is null. Every pivot is independent of the others
+     * (only p's own lines are added), so chunks of pivots run in parallel, each worker sorting in scratch arrays of its own. Segments come out in the
+     * same order either way */
+        if (store == null) throw new NullPointerException();
+        this.store = store;
+        int[] order = store.order();
+
+        int len = order.length;
+        int[] xs = new int[len], ys = new int[len];
+        for (int i = 0; i < len; i++) {
+            xs[i] = store.x(order[i]);
+            ys[i] = store.y(order[i]);
+        }
+
+        int chunks = Math.max(1, Math.min(CHUNKS, len));
+        int[][] found = new int[chunks][];
+        if (pool == null) {
+            Scratch scratch = new Scratch(xs, ys);
+            for (int c = 0; c < chunks; c++) found[c] = scratch.findLines(c * len / chunks, (c + 1) * len / chunks);
+        }
+        else pool.invoke(new Chunks(xs, ys, found, new ConcurrentLinkedQueue<Scratch>(), 0, chunks));
+
+        for (int[] lines : found) n += lines.length / 2;
+        ends = new int[2 * n];
+        int at = 0;
+        for (int[] lines : found)
+            for (int end : lines) ends[at++] = order[end];   // back from natural order to the store's indices
+    }
+
+    private static class Chunks extends RecursiveAction {
+    /* Finds the lines of chunks [lo, hi), splitting the range in half down to single chunks. Leaf tasks borrow a Scratch from idle and hand it
+     * back when they are done, so there are only about as many sets of scratch arrays as there are workers */
+        private static final long serialVersionUID = 1L;
+
+        private final int[] xs, ys;
+        private final int[][] found;
+        private final ConcurrentLinkedQueue<Scratch> idle;
+        private final int lo, hi;
+
+        Chunks(int[] xs, int[] ys, int[][] found, ConcurrentLinkedQueue<Scratch> idle, int lo, int hi) {
+            this.xs = xs;
+            this.ys = ys;
+            this.found = found;
+            this.idle = idle;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo == 1) {
+                Scratch scratch = idle.poll();
+                if (scratch == null) scratch = new Scratch(xs, ys);
+                int len = xs.length;
+                found[lo] = scratch.findLines(lo * len / found.length, (lo + 1) * len / found.length);
+                idle.offer(scratch);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new Chunks(xs, ys, found, idle, lo, mid), new Chunks(xs, ys, found, idle, mid, hi));
+        }
+    }
+
+    private static class Scratch {
+    /* The arrays one thread needs to go through pivots: the slope keys and point indices being sorted, the radix sort's buffers and counts, and a
+     * buffer for the ends of the segments found. All of them are allocated once and reused for every pivot */
+        private final int[] xs, ys;
+        private final long[] keys, keysBuffer;
+        private final int[] order, orderBuffer;
+        private final int[] counts = new int[1 << DIGIT_BITS];
+        private int[] lines = new int[4];
+        private int n;
+
+        Scratch(int[] xs, int[] ys) {
+            this.xs = xs;
+            this.ys = ys;
+            int len = xs.length;
+            keys = new long[len];
+            keysBuffer = new long[len];
+            order = new int[len];
+            orderBuffer = new int[len];
+        }
+
+        int[] findLines(int from, int to) {
+        /* Finds all maximal lines of the pivots [from, to) and returns the ends of their segments, two indices per segment. For each p, keys[j] is
+         * the slope key from p to point j and order[j] is j; after sorting both by key, points on one line through p sit next to each other. p itself
+         * has the smallest key, so it always ends up first */
+            int len = xs.length;
+            n = 0;
+            for (int i = from; i < to; i++) {
+            // Finds maximal lines by iterating through each point in points
+                for (int j = 0; j < len; j++) {
+                    keys[j] = Point.slopeKey(xs[i], ys[i], xs[j], ys[j]);
+                    order[j] = j;
+                }
+                radixSort(keys, order, len, keysBuffer, orderBuffer, counts);
+
+                int start = 1;
+                for (int j = 2; j <= len; j++) {
+                // A run of equal keys in [start, j) ends where the key changes or the array does
+                    if (j < len && keys[j] == keys[start]) continue;
+                    if (j - start >= 3) addLine(i, start, j);
+                    start = j;
+                }
+            }
+            return Arrays.copyOf(lines, n);
+        }
+
+        private void addLine(int p, int from, int to) {
+        /* Adds the maximal line through point p and the points order[from, to), if p is its smallest point. The indices of a run are in increasing
+         * order and points are in natural order, so the smallest other point is order[from] and the largest one order[to - 1] */
+            if (order[from] < p) return;   // To avoid duplicates, only p's own line counts
+
+            if (n + 2 > lines.length) lines = Arrays.copyOf(lines, 2 * lines.length);
+            lines[n++] = p;
+            lines[n++] = order[to - 1];
+        }
+    }
+
+    static void radixSort(long[] keys, int[] order, int len, long[] keysBuffer, int[] orderBuffer, int[] counts) {
+    /* Sorts keys[0, len), and order along with them, by LSD radix sort: one stable counting sort per byte, lowest byte first. Keys have to be
+     * non-negative and below 2^47, like slope keys, and counts needs 256 entries. A pass is skipped when all keys share that byte, which is common
+     * for the high bytes. Even passes write to the buffers and odd ones back, so after an even number of passes the result is in place; otherwise
+     * it is copied back at the end */
+        if (len == 0) return;
+        long[] fromKeys = keys, toKeys = keysBuffer;
+        int[] fromOrder = order, toOrder = orderBuffer;
+
+        for (int shift = 0; shift < KEY_BITS; shift += DIGIT_BITS) {
+            Arrays.fill(counts, 0);
+            for (int j = 0; j < len; j++) counts[(int) (fromKeys[j] >>> shift) & (counts.length - 1)]++;
+            if (counts[(int) (fromKeys[0] >>> shift) & (counts.length - 1)] == len) continue;
+
+            for (int d = 0, sum = 0; d < counts.length; d++) {
+                int count = counts[d];
+                counts[d] = sum;
+                sum += count;
+            }
+            for (int j = 0; j < len; j++) {
+                int to = counts[(int) (fromKeys[j] >>> shift) & (counts.length - 1)]++;
+                toKeys[to] = fromKeys[j];
+                toOrder[to] = fromOrder[j];
+            }
+            long[] swapKeys = fromKeys;
+            fromKeys = toKeys;
+            toKeys = swapKeys;
+            int[] swapOrder = fromOrder;
+            fromOrder = toOrder;
+            toOrder = swapOrder;
+        }
+        if (fromKeys != keys) {
+            System.arraycopy(fromKeys, 0, keys, 0, len);
+            System.arraycopy(fromOrder, 0, order, 0, len);
+        }
     }
-        
-    private void findLines(Point[] points) {
-    // Finds all maximal lines within points
+
+    public int numberOfSegments()
+    // How many non-duplicate non-degenerate maximal line segments are there?
+    {    return n;  }
+
+    public LineSegment[] segments()
+    // Return all non-duplicate non-degenerate maximal line segments, made of the store's points
+    {    return store.segments(ends, n);    }
+
+    public int[] segmentEnds()
+    // Return the ends of the segments as point indices into the store (or the Point[]), segment k going from index [2k] to index [2k + 1]
+    {    return ends.clone();    }
+
+    private static String bySlopeOrder(Point[] points) {
+    /* The line search as it was before the slope keys: sorts Point objects with slopeOrder() and compares slopes as doubles. Kept to check and
+     * time the fast path against. Returns the segments, one per line, as their ends' toString() */
+        StringBuilder lines = new StringBuilder();
         int len = points.length;
-        
-        Point[] copy = new Point[len];        
-        for (int i = 0; i < len; i++)
-            copy[i] = points[i];
-        // copy is used to sort points by slopeTo p, while points is maintained as the original array for index reference
-        
+        Point[] copy = points.clone();
         for (int i = 0; i < len; i++) {
-        // Finds maximal lines by iterating through each point in points
             Point p = points[i];
-            Arrays.sort(copy, p.slopeOrder());     
-    
+            Arrays.sort(copy, p.slopeOrder());
+
             int count = 1;
             for (int j = 1; j < len - 1; j++) {
-            // Iterate through copy after it has been sorted by slopeTo p
-                
-                if (p.slopeTo(copy[j]) == p.slopeTo(copy[j + 1])) {
-                // As long as the next value in the array is the same as the current, keep on counting
-                    count++;
-                    if (j == len - 2 && count >= 3) addLine(copy, p, count, j + 1);
+                boolean same = p.slopeTo(copy[j]) == p.slopeTo(copy[j + 1]);
+                if (same) count++;
+                if ((!same || j == len - 2) && count >= 3) {
+                    int end = same ? j + 1 : j;
+                    Point[] coll = new Point[count + 1];
+                    for (int k = 0; k < count; k++) coll[k] = copy[end - k];
+                    coll[count] = p;
+                    Arrays.sort(coll);
+                    if (p == coll[0]) lines.append(coll[0]).append(" -> ").append(coll[count]).append('\n');
                 }
-                
-                else if (count >= 3) {
-                // Once the chain of similar values in copy is broken, you have found the maximal line
-                    addLine(copy, p, count, j);
-                    count = 1;
+                if (!same) count = 1;
+            }
+        }
+        return lines.toString();
+    }
+
+    public static void main(String[] args) {
+    /* Checks the fast path against the slopeOrder() search and times both, on a grid of points (lots of lines, including horizontal, vertical and
+     * diagonal ones) and on random points with a few planted lines. Then times random points on pools of 1, 2, 4, ... threads up to the core count,
+     * checking that the segments come out as on the calling thread. Sizes can be passed as arguments, 50000 to 500000 to see the scaling */
+        int[] sizes = new int[args.length > 0 ? args.length : 3];
+        for (int i = 0; i < sizes.length; i++) sizes[i] = args.length > 0 ? Integer.parseInt(args[i]) : 1000 << i;
+
+        for (int size : sizes) {
+            for (String input : new String[]{"grid", "random"}) {
+                Point[] points = input.equals("grid") ? grid(size) : random(size, size);
+                for (int round = 0; round < 3; round++) {   // the first rounds are warm-up for the JIT
+                    long start = System.nanoTime();
+                    FastCollinearPoints fast = new FastCollinearPoints(points);
+                    long middle = System.nanoTime();
+                    String reference = size <= 4000 ? bySlopeOrder(CollinearInput.sorted(points)) : null;   // the old search takes minutes beyond that
+                    long end = System.nanoTime();
+
+                    StringBuilder lines = new StringBuilder();
+                    for (LineSegment segment : fast.segments()) lines.append(segment).append('\n');
+                    if (reference != null && !reference.equals(lines.toString())) throw new AssertionError(input + " " + size + ": segments differ");
+
+                    System.out.printf("%-6s %7d points, %5d segments: slope keys %8.1f ms", input, points.length, fast.numberOfSegments(), (middle - start) / 1e6);
+                    if (reference != null) System.out.printf(", slopeOrder() %8.1f ms, speedup %.1f", (end - middle) / 1e6, (end - middle) / (double) (middle - start));
+                    System.out.println();
                 }
-                else count = 1;
-            }           
+            }
         }
-    } 
-    
-    private void addLine(Point[] copy, Point p, int count, int pos) {
-    /* Add a maximal line to LineSegment[] segments by iterating backwards through copy until you have found all
-     * points that have the same slope. copy will always be the same array copy as in findLines, p is the initial
-     * point p that is the current iteration value of points, count is the number of points with the same slope,
-     * and pos is the index value of copy to begin counting backwards from*/
-        Point[] coll = new Point[count + 1];
-        
-        for (int k = 0; k < count; k++)
-        {   coll[k] = copy[pos - k]; }        
-        coll[count] = p;        
-        
-        Arrays.sort(coll);
-        
-        if (p == coll[0]) {
-        // To avoid duplicates, only add this line to segments if p is the smallest value based on Point's compareTo()
-            segments[n++] = new LineSegment(coll[0], coll[coll.length - 1]);
-            if (n == segments.length) resize(2 * n);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int size : sizes) {
+            Point[] points = random(size, size);
+            long start = System.nanoTime();
+            int[] sequential = new FastCollinearPoints(points).segmentEnds();
+            double base = (System.nanoTime() - start) / 1e9;
+            System.out.printf("random %7d points, calling thread: %.2f s%n", size, base);
+
+            for (int threads = 1; ; threads = Math.min(2 * threads, cores)) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                start = System.nanoTime();
+                int[] parallel = new FastCollinearPoints(points, pool).segmentEnds();
+                double seconds = (System.nanoTime() - start) / 1e9;
+                pool.shutdown();
+
+                if (!Arrays.equals(sequential, parallel)) throw new AssertionError(size + " points, " + threads + " threads: segments differ");
+                System.out.printf("random %7d points, %3d threads: %.2f s, speedup %.2f%n", size, threads, seconds, base / seconds);
+                if (threads == cores) break;
+            }
         }
     }
-       
-    private void resize(int capacity) {
-    // Efficiently resize a fixed length array
-        LineSegment[] copy = (new LineSegment[capacity]);
-        for (int i = 0; i < n; i++) copy[i] = segments[i];
-        segments = copy;
+
+    static Point[] grid(int size) {
+    // About size points on a square grid with spacing 7, in a random order
+        int side = (int) Math.ceil(Math.sqrt(size));
+        Point[] points = new Point[side * side];
+        for (int i = 0; i < points.length; i++) points[i] = new Point(7 * (i % side), 7 * (i / side));
+        shuffle(points, new Random(size));
+        return points;
     }
-    
-    private boolean containsDupe(Point[] points) {
-    // To check if points contains a dupe
-        for (int i = 0; i < points.length - 1; i++)
-            for (int j = i + 1; j < points.length; j++)
-                if (points[i].compareTo(points[j]) == 0) return true;
-        return false;
+
+    static Point[] random(int size, long seed) {
+    // size distinct random points, with a line of 4 to 8 points planted for about every hundredth point
+        Random random = new Random(seed);
+        HashSet<Long> seen = new HashSet<Long>();
+        Point[] points = new Point[size];
+        int count = 0;
+        while (count < size) {
+            int x = random.nextInt(32768), y = random.nextInt(32768);
+            int dx = random.nextInt(21) - 10, dy = random.nextInt(21) - 10;
+            int length = count % 100 == 0 && (dx != 0 || dy != 0) ? 4 + random.nextInt(5) : 1;
+            for (int k = 0; k < length && count < size; k++) {
+                int px = x + k * dx, py = y + k * dy;
+                if (px < 0 || px > 32767 || py < 0 || py > 32767 || !seen.add((long) px << 16 | py)) break;
+                points[count++] = new Point(px, py);
+            }
+        }
+        return points;
     }
-    
-    public int numberOfSegments()
-    // How many non-duplicate non-degenerate maximal line segments are there?
-    {    return n;  }
-    
-    public LineSegment[] segments() {
-    // Return all non-duplicate non-degenerate maximal line segments
-        LineSegment[] copy = new LineSegment[n];
-        for (int i = 0; i < n; i++)
-            copy[i] = segments[i];
-        return copy;
-    }  
-    
-    public static void main(String[] args) {
-        
+
+    private static void shuffle(Point[] points, Random random) {
+    // Fisher-Yates shuffle
+        for (int i = points.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            Point swap = points[i];
+            points[i] = points[j];
+            points[j] = swap;
+        }
     }
 }
@@ -0,0 +1,147 @@
+/* Class that finds the same maximal non-degenerate non-duplicate lines with at least 4 Points as FastCollinearPoints, in expected n^2 time instead of
+ * n^2 logn. For each point p in points, the other points are not sorted by slope but bucketed by it: a hash table keyed by the exact slope key from p
+ * (Point.slopeKey(), which equals for two points exactly when they lie on one line through p) counts the points in every direction, and keeps track of
+ * the largest one and of whether any of them is smaller than p. Every direction with at least 3 points and none smaller than p is one of p's lines,
+ * from p to the largest point, so no points have to be gathered or sorted. The table is open addressing over primitive arrays, and entries are marked
+ * with the number of the pivot that made them instead of clearing the table between pivots.
+ *
+ * Like FastCollinearPoints, it runs on the coordinates of a PointStore in natural order (PointStore.order()), so a point is smaller than the pivot
+ * exactly when its index is, and the largest point in a direction is the last one visited, and it finds the segments as pairs of point indices.
+ * Segments come out in the same order as in FastCollinearPoints: pivot by pivot, and by slope within a pivot, which only needs a sort of the handful
+ * of lines each pivot finds */
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class HashCollinearPoints {
+    private final PointStore store;
+    private int n;
+    private int[] ends;    // segment k goes from point ends[2k] to point ends[2k + 1] of store
+
+    public HashCollinearPoints(Point[] points)
+    // Finds the lines of points. Segments are made of the given Point objects
+    {    this(PointStore.of(points));    }
+
+    public HashCollinearPoints(PointStore store) {
+    /* To greatly reduce the cost of each individual call to numberOfSegments() and segments(), all maximal line segments are found during the
+     * initialization of HashCollinearPoints */
+        if (store == null) throw new NullPointerException();
+        this.store = store;
+        n = 0;
+        ends = new int[4];
+
+        int[] order = store.order();
+        findLines(order);
+        for (int k = 0; k < 2 * n; k++) ends[k] = order[ends[k]];   // back from natural order to the store's indices
+    }
+
+    private void findLines(int[] order) {
+    // Finds all maximal lines, one pivot after another, as pairs of indices into order, which lists the store's points in natural order
+        int len = order.length;
+        int[] xs = new int[len], ys = new int[len];
+        for (int i = 0; i < len; i++) {
+            xs[i] = store.x(order[i]);
+            ys[i] = store.y(order[i]);
+        }
+
+        int capacity = Integer.highestOneBit(Math.max(2, 2 * len - 1)) * 2;   // at least twice as many slots as directions, so probes stay short
+        int shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        long[] keys = new long[capacity];
+        int[] pivot = new int[capacity];      // pivot number + 1 of the entry in this slot, anything else is an empty slot
+        int[] count = new int[capacity];
+        int[] max = new int[capacity];        // largest point in this direction so far, the last one visited
+        boolean[] blocked = new boolean[capacity];   // is some point in this direction smaller than the pivot?
+        int[] used = new int[len];            // slots filled for the current pivot
+
+        long[] lineKeys = new long[len], keysBuffer = new long[len];
+        int[] lineMax = new int[len], maxBuffer = new int[len];
+        int[] counts = new int[256];
+
+        for (int i = 0; i < len; i++) {
+            int filled = 0;
+            for (int j = 0; j < len; j++) {
+                if (j == i) continue;
+                long key = Point.slopeKey(xs[i], ys[i], xs[j], ys[j]);
+                int h = (int) (key * 0x9E3779B97F4A7C15L >>> shift);
+                while (pivot[h] == i + 1 && keys[h] != key) h = (h + 1) & (capacity - 1);
+                if (pivot[h] != i + 1) {
+                    pivot[h] = i + 1;
+                    keys[h] = key;
+                    count[h] = 0;
+                    max[h] = i;
+                    blocked[h] = false;
+                    used[filled++] = h;
+                }
+
+                count[h]++;
+                if (j < i) blocked[h] = true;   // To avoid duplicates, only p's own lines count
+                else max[h] = j;
+            }
+
+            int lines = 0;
+            for (int u = 0; u < filled; u++) {
+                int h = used[u];
+                if (count[h] < 3 || blocked[h]) continue;
+                lineKeys[lines] = keys[h];
+                lineMax[lines++] = max[h];
+            }
+            FastCollinearPoints.radixSort(lineKeys, lineMax, lines, keysBuffer, maxBuffer, counts);
+            for (int k = 0; k < lines; k++) {
+                if (2 * n + 2 > ends.length) ends = Arrays.copyOf(ends, 2 * ends.length);
+                ends[2 * n] = i;
+                ends[2 * n + 1] = lineMax[k];
+                n++;
+            }
+        }
+    }
+
+    public int numberOfSegments()
+    // How many non-duplicate non-degenerate maximal line segments are there?
+    {    return n;  }
+
+    public LineSegment[] segments()
+    // Return all non-duplicate non-degenerate maximal line segments, made of the store's points
+    {    return store.segments(ends, n);    }
+
+    public int[] segmentEnds()
+    // Return the ends of the segments as point indices into the store (or the Point[]), segment k going from index [2k] to index [2k + 1]
+    {    return Arrays.copyOf(ends, 2 * n);    }
+
+    public static void main(String[] args) {
+    /* Benchmark against FastCollinearPoints and BruteCollinearPoints on random points with planted lines, checking that the segments are the same
+     * as FastCollinearPoints' ones. Brute force only runs on the smallest inputs, and only finds lines of exactly 4 points, so it is checked on an
+     * input that has no longer ones. Sizes can be passed as arguments */
+        int[] sizes = new int[args.length > 0 ? args.length : 4];
+        for (int i = 0; i < sizes.length; i++) sizes[i] = args.length > 0 ? Integer.parseInt(args[i]) : 500 << (i + i / 2);
+
+        Point[] fours = new Point[200];
+        Random random = new Random(4);
+        for (int i = 0; i < fours.length; i += 4) {   // lines of 4 points, far enough apart in x not to form longer lines
+            int x = 160 * (i / 4), y = 300 + random.nextInt(30000), dx = 1 + random.nextInt(30), dy = random.nextInt(201) - 100;
+            for (int k = 0; k < 4; k++) fours[i + k] = new Point(x + k * dx, y + k * dy);
+        }
+        long start = System.nanoTime();
+        int brute = new BruteCollinearPoints(fours).numberOfSegments();
+        long middle = System.nanoTime();
+        int hash = new HashCollinearPoints(fours).numberOfSegments();
+        long end = System.nanoTime();
+        if (brute != hash) throw new AssertionError("brute force found " + brute + " segments, hashing " + hash);
+        System.out.printf("%7d points, %5d segments: brute force %8.1f ms, hash %8.1f ms%n", fours.length, hash, (middle - start) / 1e6, (end - middle) / 1e6);
+
+        for (int size : sizes) {
+            Point[] points = FastCollinearPoints.random(size, size);
+            for (int round = 0; round < 3; round++) {   // the first rounds are warm-up for the JIT
+                start = System.nanoTime();
+                HashCollinearPoints hashed = new HashCollinearPoints(points);
+                middle = System.nanoTime();
+                FastCollinearPoints fast = new FastCollinearPoints(points);
+                end = System.nanoTime();
+
+                if (!Arrays.equals(hashed.segmentEnds(), fast.segmentEnds()))
+                    throw new AssertionError(size + " points: segments differ");
+                System.out.printf("%7d points, %5d segments: fast %8.1f ms, hash %8.1f ms, speedup %.2f%n", size, hashed.numberOfSegments(),
+                                  (end - middle) / 1e6, (middle - start) / 1e6, (end - middle) / (double) (middle - start));
+            }
+        }
+    }
+}
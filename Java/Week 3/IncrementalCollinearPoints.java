@@ -0,0 +1,262 @@
+/* Class that keeps the maximal non-degenerate non-duplicate lines with at least 4 Points up to date while points arrive one at a time, instead of
+ * finding them all at once over a fixed array. Inserting a point q only looks at the directions from q to the points already there: like
+ * HashCollinearPoints, a hash table keyed by the exact slope key (Point.slopeKey()) counts the points in every direction from q and keeps track of the
+ * smallest and largest one, in expected n time per insert. Every direction with at least 3 points is a line through q with at least 4 points now: a new
+ * segment if it had exactly 3 before, otherwise an existing one, whose ends move if q lies beyond them.
+ *
+ * The live segments are indexed by their line, so an existing one is found without a search: a line is its direction (dx, dy), reduced by their gcd and
+ * pointing right or up, together with dy * x - dx * y, which is the same for every point (x, y) on it. An optional Listener is told about every added and
+ * extended segment. Segments come out in the order they were found, which is not the order of FastCollinearPoints */
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+public class IncrementalCollinearPoints {
+    public interface Listener {
+    // Told about every change to the segments, during the insert() that makes it
+        void segmentAdded(LineSegment segment);                    // a line reached 4 points
+        void segmentExtended(LineSegment from, LineSegment to);    // a new point moved an end of a line's segment
+    }
+
+    private static final int COORDINATE_BITS = 15;   // slope keys are only exact for coordinates below 2^15
+
+    private final Listener listener;
+
+    private int n;             // number of points
+    private int[] xs, ys;
+    private Point[] points;
+
+    /* Directions from the point being inserted, open addressing over primitive arrays. Entries are marked with the number of the insert that made
+     * them instead of clearing the table between inserts */
+    private int round;
+    private long[] keys;
+    private int[] stamp, count, min, max;
+    private int[] used;        // slots filled by the current insert
+
+    // Live segments, one per line with at least 4 points, by line number in the order they were found
+    private int lines;
+    private int[] lineDx, lineDy, lineMin, lineMax;
+    private long[] lineC;
+    private LineSegment[] segments;
+    private int[] index;       // line number + 1 of the line in this slot, open addressing by line, 0 is an empty slot
+
+    public IncrementalCollinearPoints()
+    // Initializes an empty IncrementalCollinearPoints without a listener
+    {    this(null);    }
+
+    public IncrementalCollinearPoints(Listener listener) {
+    // Initializes an empty IncrementalCollinearPoints that tells listener, if not null, about every added and extended segment
+        this.listener = listener;
+        xs = new int[16];
+        ys = new int[16];
+        points = new Point[16];
+        allocateDirections(32);
+
+        lineDx = new int[4];
+        lineDy = new int[4];
+        lineMin = new int[4];
+        lineMax = new int[4];
+        lineC = new long[4];
+        segments = new LineSegment[4];
+        index = new int[16];
+    }
+
+    public void insert(Point p) {
+    /* Adds p, and adds or extends the segments of every line through p that now has at least 4 points. Throws IllegalArgumentException if p is
+     * already there or outside 0 to 32767, where slope keys are no longer exact, before anything has changed */
+        if (p == null) throw new NullPointerException();
+        int x = p.x(), y = p.y();
+        if (x < 0 || x >> COORDINATE_BITS != 0 || y < 0 || y >> COORDINATE_BITS != 0) throw new IllegalArgumentException(p + " out of range");
+        if (2 * n + 2 > keys.length) allocateDirections(2 * keys.length);   // at least twice as many slots as directions, so probes stay short
+
+        int mark = ++round, filled = 0, mask = keys.length - 1;
+        for (int j = 0; j < n; j++) {
+            long key = Point.slopeKey(x, y, xs[j], ys[j]);
+            if (key == 0) throw new IllegalArgumentException("duplicate point " + p);
+            int h = (int) (key * 0x9E3779B97F4A7C15L >>> 32) & mask;
+            while (stamp[h] == mark && keys[h] != key) h = (h + 1) & mask;
+            if (stamp[h] != mark) {
+                stamp[h] = mark;
+                keys[h] = key;
+                count[h] = 0;
+                min[h] = j;
+                max[h] = j;
+                used[filled++] = h;
+            }
+
+            count[h]++;
+            if (less(j, min[h])) min[h] = j;
+            else if (less(max[h], j)) max[h] = j;
+        }
+
+        if (n == xs.length) {
+            xs = Arrays.copyOf(xs, 2 * n);
+            ys = Arrays.copyOf(ys, 2 * n);
+            points = Arrays.copyOf(points, 2 * n);
+        }
+        int q = n++;
+        xs[q] = x;
+        ys[q] = y;
+        points[q] = p;
+
+        for (int u = 0; u < filled; u++) {
+            int h = used[u];
+            if (count[h] < 3) continue;
+            int lo = less(q, min[h]) ? q : min[h], hi = less(max[h], q) ? q : max[h];
+            update(q, max[h], count[h] == 3, lo, hi);
+        }
+    }
+
+    private void update(int q, int j, boolean added, int lo, int hi) {
+    // Adds the segment from points[lo] to points[hi] on the line through points q and j, or moves the ends of the line's segment there
+        int dx = xs[j] - xs[q], dy = ys[j] - ys[q];
+        int g = gcd(Math.abs(dx), Math.abs(dy));
+        dx /= g;
+        dy /= g;
+        if (dx < 0 || dx == 0 && dy < 0) {
+            dx = -dx;
+            dy = -dy;
+        }
+        long c = (long) dy * xs[q] - (long) dx * ys[q];
+
+        if (added) {
+            if (2 * lines + 2 > index.length) rehash(2 * index.length);
+            if (lines == segments.length) resize(2 * lines);
+            int l = lines++;
+            lineDx[l] = dx;
+            lineDy[l] = dy;
+            lineC[l] = c;
+            lineMin[l] = lo;
+            lineMax[l] = hi;
+            segments[l] = new LineSegment(points[lo], points[hi]);
+            index[find(dx, dy, c)] = l + 1;
+            if (listener != null) listener.segmentAdded(segments[l]);
+            return;
+        }
+
+        int l = index[find(dx, dy, c)] - 1;
+        if (lineMin[l] == lo && lineMax[l] == hi) return;   // q lies between the ends
+        LineSegment from = segments[l];
+        lineMin[l] = lo;
+        lineMax[l] = hi;
+        segments[l] = new LineSegment(points[lo], points[hi]);
+        if (listener != null) listener.segmentExtended(from, segments[l]);
+    }
+
+    private int find(int dx, int dy, long c) {
+    // Slot of the line in index, or the empty slot where it belongs
+        int mask = index.length - 1;
+        int h = (int) (((dx * 0x9E3779B97F4A7C15L + dy) * 0x9E3779B97F4A7C15L + c) * 0x9E3779B97F4A7C15L >>> 32) & mask;
+        while (index[h] != 0) {
+            int l = index[h] - 1;
+            if (lineDx[l] == dx && lineDy[l] == dy && lineC[l] == c) return h;
+            h = (h + 1) & mask;
+        }
+        return h;
+    }
+
+    private void rehash(int capacity) {
+    // Rebuilds index with capacity slots
+        index = new int[capacity];
+        for (int l = 0; l < lines; l++) index[find(lineDx[l], lineDy[l], lineC[l])] = l + 1;
+    }
+
+    private void resize(int capacity) {
+    // Efficiently resize the fixed length line arrays
+        lineDx = Arrays.copyOf(lineDx, capacity);
+        lineDy = Arrays.copyOf(lineDy, capacity);
+        lineMin = Arrays.copyOf(lineMin, capacity);
+        lineMax = Arrays.copyOf(lineMax, capacity);
+        lineC = Arrays.copyOf(lineC, capacity);
+        segments = Arrays.copyOf(segments, capacity);
+    }
+
+    private void allocateDirections(int capacity) {
+    // Replaces the direction table by an empty one with capacity slots, capacity a power of two
+        keys = new long[capacity];
+        stamp = new int[capacity];
+        count = new int[capacity];
+        min = new int[capacity];
+        max = new int[capacity];
+        used = new int[capacity / 2];
+    }
+
+    private boolean less(int i, int j)
+    // Is points[i] smaller than points[j] by Point's compareTo() order (y, then x)?
+    {    return ys[i] < ys[j] || ys[i] == ys[j] && xs[i] < xs[j];    }
+
+    private static int gcd(int a, int b)
+    // Greatest common divisor of two non-negative ints, not both 0
+    {    return b == 0 ? a : gcd(b, a % b);    }
+
+    public int size()
+    // How many points have been inserted?
+    {    return n;    }
+
+    public int numberOfSegments()
+    // How many non-duplicate non-degenerate maximal line segments are there?
+    {    return lines;  }
+
+    public LineSegment[] segments()
+    // Return all non-duplicate non-degenerate maximal line segments, in the order they were found
+    {    return Arrays.copyOf(segments, lines);    }
+
+    public static void main(String[] args) {
+    /* Streams grid points (lots of lines, which keep growing as the points arrive in a random order) and random points with a few planted lines through
+     * insert(), one at a time. Eight times along the way, the segments, and the segments rebuilt from the listener's events, are checked against a full
+     * FastCollinearPoints rebuild over the points so far, and the average insert is timed against that rebuild. Sizes can be passed as arguments */
+        int[] sizes = {1000, 2000, 4000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        for (int size : sizes) {
+            for (String input : new String[]{"grid", "random"}) {
+                Point[] points = input.equals("grid") ? FastCollinearPoints.grid(size) : FastCollinearPoints.random(size, size);
+                final Set<String> live = new HashSet<String>();
+                final int[] events = new int[2];
+                IncrementalCollinearPoints incremental = new IncrementalCollinearPoints(new Listener() {
+                    public void segmentAdded(LineSegment segment) {
+                        if (!live.add(segment.toString())) throw new AssertionError("added twice: " + segment);
+                        events[0]++;
+                    }
+
+                    public void segmentExtended(LineSegment from, LineSegment to) {
+                        if (!live.remove(from.toString()) || !live.add(to.toString())) throw new AssertionError("extended " + from + " to " + to);
+                        events[1]++;
+                    }
+                });
+
+                long inserting = 0, rebuilding = 0;
+                int step = Math.max(1, points.length / 8);
+                for (int i = 0; i < points.length; i++) {
+                    long start = System.nanoTime();
+                    incremental.insert(points[i]);
+                    inserting += System.nanoTime() - start;
+                    if ((i + 1) % step != 0 && i + 1 != points.length) continue;
+
+                    start = System.nanoTime();
+                    FastCollinearPoints fast = new FastCollinearPoints(Arrays.copyOf(points, i + 1));
+                    rebuilding = System.nanoTime() - start;
+
+                    String[] expected = sortedStrings(fast.segments()), found = sortedStrings(incremental.segments());
+                    if (!Arrays.equals(expected, found)) throw new AssertionError(input + ", " + (i + 1) + " points: segments differ");
+                    if (!live.equals(new HashSet<String>(Arrays.asList(found)))) throw new AssertionError(input + ", " + (i + 1) + " points: events differ");
+                }
+
+                System.out.printf("%-6s %7d points, %6d segments (%6d added, %7d extended): insert %7.2f us on average, rebuild %8.1f ms%n", input,
+                                  points.length, incremental.numberOfSegments(), events[0], events[1], inserting / 1e3 / points.length, rebuilding / 1e6);
+            }
+        }
+    }
+
+    private static String[] sortedStrings(LineSegment[] segments) {
+    // The segments as strings, sorted, to compare them regardless of their order
+        String[] strings = new String[segments.length];
+        for (int i = 0; i < segments.length; i++) strings[i] = segments[i].toString();
+        Arrays.sort(strings);
+        return strings;
+    }
+}
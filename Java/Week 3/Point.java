@@ -43,6 +43,28 @@ public class Point implements Comparable<Point> {
         else return ((double) (that.y - y) / (that.x - x));
     }
     
+    int x()
+    // x coordinate, for the collinear finders' primitive fast paths
+    {    return x;    }
+    
+    int y()
+    // y coordinate, for the collinear finders' primitive fast paths
+    {    return y;    }
+    
+    static long slopeKey(int x0, int y0, int x1, int y1) {
+    /* Integer key that orders like slopeTo() from (x0, y0) to (x1, y1) and is equal exactly when the slopes are equal: floor(slope * 2^30), shifted
+     * up by 2^46 so that every key is non-negative and fits into 47 bits. It is exact because coordinates are below 2^15: two different slopes
+     * dy/dx differ by at least 1 / (dx1 * dx2) > 2^-30, so their keys differ. The point itself gets 0 and vertical slopes get 2^47 - 1, which
+     * sort below and above all other keys, as NEGATIVE_INFINITY and POSITIVE_INFINITY do */
+        long dx = x1 - x0, dy = y1 - y0;
+        if (dx == 0) return dy == 0 ? 0 : (1L << 47) - 1;
+        if (dx < 0) {
+            dx = -dx;
+            dy = -dy;
+        }
+        return Math.floorDiv(dy << 30, dx) + (1L << 46);
+    }
+    
     public Comparator<Point> slopeOrder() {
         return new BySlope();
     }
@@ -0,0 +1,169 @@
+/* Points kept in columns, one int[] of x coordinates and one of y coordinates, instead of one Point object per point. A million points are two arrays of
+ * 4 MB each, where a Point[] is a million separate objects of 16 bytes or more spread over the heap plus the array of references to them. Points are
+ * named by their index, and the collinear finders run on the columns directly and give their segments as pairs of indices.
+ *
+ * A store made from a Point[] by of() keeps the array, so that point() gives back the caller's own Point objects; that is how the finders' Point[]
+ * constructors and their segments() keep working. Coordinates have to be between 0 and 32767, like Point's, which lets a point and its index be packed
+ * into one long for sorting */
+
+import java.util.Arrays;
+
+public final class PointStore {
+    private static final int COORDINATE_BITS = 15;   // coordinates are below 2^15
+
+    private int n;
+    private int[] xs, ys;
+    private Point[] objects;   // the Points this store was made from by of(), or null
+
+    public PointStore()
+    // Initializes an empty PointStore
+    {    this(16);    }
+
+    public PointStore(int capacity) {
+    // Initializes an empty PointStore with room for capacity points before it has to grow
+        if (capacity < 0) throw new IllegalArgumentException();
+        xs = new int[Math.max(1, capacity)];
+        ys = new int[Math.max(1, capacity)];
+    }
+
+    public static PointStore of(Point[] points) {
+    // Returns a PointStore with the coordinates of points, in the same order, that gives back the same objects from point()
+        if (points == null) throw new NullPointerException();
+        PointStore store = new PointStore(points.length);
+        for (Point point : points) store.add(point.x(), point.y());
+        store.objects = points.clone();
+        return store;
+    }
+
+    public int add(int x, int y) {
+    // Adds the point (x, y) and returns its index
+        if (x < 0 || x >> COORDINATE_BITS != 0 || y < 0 || y >> COORDINATE_BITS != 0) throw new IllegalArgumentException("(" + x + ", " + y + ") out of range");
+        if (n == xs.length) {
+            xs = Arrays.copyOf(xs, 2 * n);
+            ys = Arrays.copyOf(ys, 2 * n);
+            if (objects != null) objects = Arrays.copyOf(objects, 2 * n);
+        }
+        xs[n] = x;
+        ys[n] = y;
+        return n++;
+    }
+
+    public int size()
+    // Number of points
+    {    return n;    }
+
+    public int x(int i) {
+    // x coordinate of point i
+        if (i < 0 || i >= n) throw new IndexOutOfBoundsException();
+        return xs[i];
+    }
+
+    public int y(int i) {
+    // y coordinate of point i
+        if (i < 0 || i >= n) throw new IndexOutOfBoundsException();
+        return ys[i];
+    }
+
+    public Point point(int i) {
+    // Point i: the original object for a store made by of(), otherwise a new Point
+        if (i < 0 || i >= n) throw new IndexOutOfBoundsException();
+        if (objects != null && objects[i] != null) return objects[i];
+        return new Point(xs[i], ys[i]);
+    }
+
+    int[] order() {
+    /* Indices of the points in natural order (Point's compareTo(): by y, then by x). Every point is packed into one long, y and x on top and its
+     * index below, so a primitive sort of the longs puts them in order without comparator calls or pointer chasing, and duplicates next to each
+     * other. Throws IllegalArgumentException on a duplicate point */
+        long[] packed = new long[n];
+        for (int i = 0; i < n; i++) packed[i] = ((long) ys[i] << COORDINATE_BITS | xs[i]) << 32 | i;
+        Arrays.sort(packed);
+
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            if (i > 0 && packed[i] >>> 32 == packed[i - 1] >>> 32) throw new IllegalArgumentException("duplicate point " + point((int) packed[i]));
+            order[i] = (int) packed[i];
+        }
+        return order;
+    }
+
+    LineSegment[] segments(int[] ends, int count) {
+    // The first count segments of ends, segment k going from point ends[2k] to point ends[2k + 1]
+        LineSegment[] segments = new LineSegment[count];
+        for (int k = 0; k < count; k++) segments[k] = new LineSegment(point(ends[2 * k]), point(ends[2 * k + 1]));
+        return segments;
+    }
+
+    public static void main(String[] args) {
+    /* Measures the heap taken by a million points as Point objects and as a PointStore, then times getting them into natural order with duplicates
+     * checked (a sort of Point objects against order()), and FastCollinearPoints on Point[] against on a PointStore, checking that both find the
+     * same segments. Sizes can be passed as arguments, the first one for the memory and sort */
+        int[] sizes = {1000000, 2000, 4000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        int size = sizes[0];
+        int[] coordinates = coordinates(FastCollinearPoints.random(size, size));   // distinct points, so that order() finds no duplicates
+
+        long before = usedMemory();
+        Point[] points = new Point[size];
+        for (int i = 0; i < size; i++) points[i] = new Point(coordinates[2 * i], coordinates[2 * i + 1]);
+        long objectBytes = usedMemory() - before;
+
+        before = usedMemory();
+        PointStore store = new PointStore(size);
+        for (int i = 0; i < size; i++) store.add(coordinates[2 * i], coordinates[2 * i + 1]);
+        long storeBytes = usedMemory() - before;
+        System.out.printf("%7d points: Point[] %6.1f MB, PointStore %6.1f MB%n", size, objectBytes / 1e6, storeBytes / 1e6);
+
+        for (int round = 0; round < 3; round++) {   // the first rounds are warm-up for the JIT
+            long start = System.nanoTime();
+            Point[] sorted = points.clone();
+            Arrays.sort(sorted);
+            long middle = System.nanoTime();
+            int[] order = store.order();
+            long end = System.nanoTime();
+
+            for (int i = 0; i < size; i++)
+                if (sorted[i].compareTo(store.point(order[i])) != 0) throw new AssertionError("orders differ at " + i);
+            System.out.printf("%7d points: sorting Point[] %7.1f ms, order() %7.1f ms%n", size, (middle - start) / 1e6, (end - middle) / 1e6);
+        }
+
+        for (int k = 1; k < sizes.length; k++) {
+            points = FastCollinearPoints.random(sizes[k], sizes[k]);
+            store = new PointStore(points.length);
+            for (Point point : points) store.add(point.x(), point.y());
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                FastCollinearPoints objects = new FastCollinearPoints(points);
+                long middle = System.nanoTime();
+                FastCollinearPoints columns = new FastCollinearPoints(store);
+                long end = System.nanoTime();
+
+                if (!Arrays.equals(objects.segmentEnds(), columns.segmentEnds()) || !Arrays.toString(objects.segments()).equals(Arrays.toString(columns.segments())))
+                    throw new AssertionError(sizes[k] + " points: segments differ");
+                System.out.printf("%7d points, %5d segments: Point[] %8.1f ms, PointStore %8.1f ms%n", sizes[k], columns.numberOfSegments(),
+                                  (middle - start) / 1e6, (end - middle) / 1e6);
+            }
+        }
+    }
+
+    private static int[] coordinates(Point[] points) {
+    // x and y of every point, one after the other
+        int[] coordinates = new int[2 * points.length];
+        for (int i = 0; i < points.length; i++) {
+            coordinates[2 * i] = points[i].x();
+            coordinates[2 * i + 1] = points[i].y();
+        }
+        return coordinates;
+    }
+
+    private static long usedMemory() {
+    // Bytes of heap in use, after asking for garbage collection a few times so that mostly live objects are counted
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}